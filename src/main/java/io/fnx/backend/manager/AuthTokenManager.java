@@ -1,11 +1,15 @@
 package io.fnx.backend.manager;
 
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.cmd.Query;
 import io.fnx.backend.domain.AuthTokenEntity;
 import io.fnx.backend.tools.auth.AuthTokenMapper;
 import io.fnx.backend.tools.auth.Principal;
+import io.fnx.backend.tools.cache.ExpiringLruCache;
 import io.fnx.backend.tools.ofy.OfyProvider;
 import io.fnx.backend.tools.random.Randomizer;
 import org.joda.time.DateTime;
@@ -14,6 +18,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 
 import static io.fnx.backend.tools.ofy.OfyUtils.loadKey;
 import static java.lang.String.format;
@@ -26,10 +33,15 @@ import static java.lang.String.format;
  * After the validity period expires the token cannot be used again.
  * Tokens are automatically renewed when used via {@link #useToken(String)}
  *
+ * Optionally the tokens can be cached in-instance (see {@link #enableTokenCache(int, Duration)}), which saves
+ * the datastore / memcache lookup of the token on every request.
+ *
  * @param <T> concrete principal type
  */
 public class AuthTokenManager<T extends Principal> implements AuthTokenMapper<T> {
 
+    private static final String SWEEP_CURSOR_SEPARATOR = ":";
+
     private Logger log = LoggerFactory.getLogger(AuthTokenMapper.class);
 
     private Duration tokenValidDuration = Duration.standardDays(21);
@@ -40,9 +52,13 @@ public class AuthTokenManager<T extends Principal> implements AuthTokenMapper<T>
 
     private short tokenLength = 22; // +- 128bits in base64 encoding
 
+    private ExpiringLruCache<String, CachedToken> tokenCache;
+
+    private TokenTouchQueue touchQueue;
+
     @Override
     public T useToken(String token) {
-        final AuthTokenEntity entity = getAuthToken(token);
+        final AuthTokenEntity entity = getCachedAuthToken(token);
         if (entity == null || entity.getLastTouch() == null || entity.getOwner() == null) {
             log.info(format("Auth token [%s] is invalid", token));
             return null;
@@ -52,18 +68,44 @@ public class AuthTokenManager<T extends Principal> implements AuthTokenMapper<T>
             log.info(format("Auth token [%s] had expired at [%s]", token, entity.getLastTouch().plus(getTokenValidDuration())));
             return null;
         }
-        touchToken(entity);
+        if (touchToken(entity)) cacheToken(entity);
         @SuppressWarnings("unchecked")
         final T principal = (T) loadKey(entity.getOwner());
         return principal;
     }
 
+    /**
+     * Looks the token up in the token cache (when enabled) and falls back to the datastore.
+     *
+     * @param token the token to load
+     * @return entity for given token, or null if no such entity exists
+     */
+    private AuthTokenEntity getCachedAuthToken(String token) {
+        final ExpiringLruCache<String, CachedToken> cache = tokenCache;
+        if (cache == null || token == null || token.isEmpty()) return getAuthToken(token);
+
+        final CachedToken cached = cache.get(token);
+        if (cached != null) return cached.toEntity(token);
+
+        final AuthTokenEntity entity = getAuthToken(token);
+        cacheToken(entity);
+        return entity;
+    }
+
+    private void cacheToken(AuthTokenEntity entity) {
+        final ExpiringLruCache<String, CachedToken> cache = tokenCache;
+        if (cache == null || entity == null || entity.getLastTouch() == null || entity.getOwner() == null) return;
+        cache.put(entity.getId(), new CachedToken(entity.getOwner(), entity.getLastTouch()));
+    }
+
     /**
      * Changes the {@link AuthTokenEntity#lastTouch} property to current time.
      * It does so only every so often to save writes (this is called during each request normally).
      * So last touch should change only once a day and then it will be skipped for every successive
      * request for next 24hours
      *
+     * When {@link TokenTouchQueue} is set, the write is queued and coalesced with touches from other requests.
+     *
      * @param entity the auth token to update
      * @return true if the time had been updated or false when it was not necessary
      */
@@ -74,9 +116,13 @@ public class AuthTokenManager<T extends Principal> implements AuthTokenMapper<T>
         final DateTime yesterday = now.minusDays(1);
         if (entity.getLastTouch().isBefore(yesterday)) {
             entity.setLastTouch(now);
-            // do not wait for data store to finish
-            // it is not that important operation
-            ofy().save().entity(entity);
+            if (touchQueue != null) {
+                touchQueue.touch(entity);
+            } else {
+                // do not wait for data store to finish
+                // it is not that important operation
+                ofy().save().entity(entity);
+            }
             return true;
         } else {
             return false;
@@ -129,6 +175,8 @@ public class AuthTokenManager<T extends Principal> implements AuthTokenMapper<T>
         if (token == null) return;
 
         final Key<AuthTokenEntity> authTokenKey = AuthTokenEntity.createKey(token);
+        if (tokenCache != null) tokenCache.invalidate(token);
+        if (touchQueue != null) touchQueue.remove(token);
         ofy().transact(new VoidWork() {
             @Override
             public void vrun() {
@@ -138,10 +186,103 @@ public class AuthTokenManager<T extends Principal> implements AuthTokenMapper<T>
         log.info(format("Auth token [%s] has been deleted", authTokenKey.getName()));
     }
 
+    /**
+     * Deletes tokens which had expired (were not used for {@link #getTokenValidDuration()}).
+     *
+     * Expired tokens are paged through by keys only query and deleted in batches. The sweep can be
+     * split across several invocations (e.g. cron or task queue handlers), each one resuming from the cursor
+     * returned by the previous one. The cursor carries the validity boundary of the sweep it belongs to,
+     * so resumed invocations run the very same query (tokens expired since the sweep started are left
+     * to the next sweep).
+     *
+     * Must not be called inside Objectify transaction.
+     *
+     * @param cursor cursor returned by previous invocation, or null to start new sweep
+     * @param batchSize number of tokens deleted in single batch
+     * @param maxBatches maximal number of batches deleted by this invocation
+     * @return result of the sweep with cursor to continue from
+     */
+    public TokenSweepResult sweepExpiredTokens(String cursor, int batchSize, int maxBatches) {
+        if (batchSize <= 0) throw new IllegalArgumentException("Batch size must be > 0, was " + batchSize);
+        if (maxBatches <= 0) throw new IllegalArgumentException("Max batches must be > 0, was " + maxBatches);
+        final long started = System.currentTimeMillis();
+        final Date validityBoundary;
+        String currentCursor;
+        if (cursor != null) {
+            final int separator = cursor.indexOf(SWEEP_CURSOR_SEPARATOR);
+            if (separator <= 0) throw new IllegalArgumentException("Invalid sweep cursor " + cursor);
+            validityBoundary = new Date(Long.parseLong(cursor.substring(0, separator)));
+            currentCursor = cursor.substring(separator + 1);
+        } else {
+            validityBoundary = DateTime.now().minus(getTokenValidDuration()).toDate();
+            currentCursor = null;
+        }
+
+        int deleted = 0;
+        int batches = 0;
+        while (batches < maxBatches) {
+            Query<AuthTokenEntity> query = ofy().load().type(AuthTokenEntity.class)
+                    .filter("lastTouch <", validityBoundary)
+                    .limit(batchSize);
+            if (currentCursor != null) query = query.startAt(Cursor.fromWebSafeString(currentCursor));
+
+            final QueryResultIterator<Key<AuthTokenEntity>> it = query.keys().iterator();
+            final List<Key<AuthTokenEntity>> keys = new ArrayList<>(batchSize);
+            while (it.hasNext()) {
+                keys.add(it.next());
+            }
+            if (!keys.isEmpty()) {
+                ofy().delete().keys(keys).now();
+                for (Key<AuthTokenEntity> key : keys) {
+                    if (tokenCache != null) tokenCache.invalidate(key.getName());
+                    if (touchQueue != null) touchQueue.remove(key.getName());
+                }
+                deleted += keys.size();
+                batches++;
+            }
+            if (keys.size() < batchSize) {
+                currentCursor = null;
+                break;
+            }
+            currentCursor = it.getCursor().toWebSafeString();
+        }
+
+        final String resumeCursor = currentCursor != null
+                ? validityBoundary.getTime() + SWEEP_CURSOR_SEPARATOR + currentCursor
+                : null;
+        final TokenSweepResult result = new TokenSweepResult(deleted, batches, resumeCursor, System.currentTimeMillis() - started);
+        log.info(format("Expired auth tokens sweep: %s", result));
+        return result;
+    }
+
     protected Objectify ofy() {
         return ofyProvider.get();
     }
 
+    /**
+     * Enables in-instance cache of tokens (owner and last touch of the token), bounded by size and TTL.
+     *
+     * Destroyed tokens are removed from the cache of this instance immediately, on other instances
+     * they can remain usable for at most given TTL, so keep it short.
+     *
+     * @param maxSize maximal number of cached tokens
+     * @param ttl how long is the token cached
+     */
+    public void enableTokenCache(int maxSize, Duration ttl) {
+        this.tokenCache = new ExpiringLruCache<>(maxSize, ttl.getMillis());
+    }
+
+    public void disableTokenCache() {
+        this.tokenCache = null;
+    }
+
+    /**
+     * @return the token cache (for hit / miss / eviction statistics) or null if not enabled
+     */
+    public ExpiringLruCache<String, ?> getTokenCache() {
+        return tokenCache;
+    }
+
     public Duration getTokenValidDuration() {
         return tokenValidDuration;
     }
@@ -160,6 +301,15 @@ public class AuthTokenManager<T extends Principal> implements AuthTokenMapper<T>
         this.randomizer = randomizer;
     }
 
+    /**
+     * Allows to write token touches in coalesced batches, instead of writing each of them inline.
+     *
+     * @param touchQueue queue of touched tokens, null to write touches inline
+     */
+    public void setTouchQueue(TokenTouchQueue touchQueue) {
+        this.touchQueue = touchQueue;
+    }
+
     /**
      * Allows to parameterize the token length.
      * Tokens are base64bit (6bits per character) and should be at least 128 bits long
@@ -178,4 +328,22 @@ public class AuthTokenManager<T extends Principal> implements AuthTokenMapper<T>
     public void setTokenValidDuration(Duration tokenValidDuration) {
         this.tokenValidDuration = tokenValidDuration;
     }
+
+    private static final class CachedToken {
+        private final Key<? extends Principal> owner;
+        private final DateTime lastTouch;
+
+        private CachedToken(Key<? extends Principal> owner, DateTime lastTouch) {
+            this.owner = owner;
+            this.lastTouch = lastTouch;
+        }
+
+        private AuthTokenEntity toEntity(String token) {
+            final AuthTokenEntity entity = new AuthTokenEntity();
+            entity.setId(token);
+            entity.setOwner(owner);
+            entity.setLastTouch(lastTouch);
+            return entity;
+        }
+    }
 }
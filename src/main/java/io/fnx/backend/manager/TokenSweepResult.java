@@ -0,0 +1,65 @@
+package io.fnx.backend.manager;
+
+/**
+ * Outcome of single {@link AuthTokenManager#sweepExpiredTokens(String, int, int)} invocation.
+ */
+public class TokenSweepResult {
+
+    private final int deletedCount;
+    private final int batchCount;
+    private final String cursor;
+    private final long elapsedMillis;
+
+    public TokenSweepResult(int deletedCount, int batchCount, String cursor, long elapsedMillis) {
+        this.deletedCount = deletedCount;
+        this.batchCount = batchCount;
+        this.cursor = cursor;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return number of deleted tokens
+     */
+    public int getDeletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * @return number of delete batches
+     */
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * @return opaque web safe cursor to resume the sweep from, or null if there are no more expired tokens
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public boolean isFinished() {
+        return cursor == null;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return deleted tokens per second
+     */
+    public double getThroughput() {
+        return elapsedMillis == 0 ? deletedCount : deletedCount * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenSweepResult{" +
+                "deletedCount=" + deletedCount +
+                ", batchCount=" + batchCount +
+                ", elapsedMillis=" + elapsedMillis +
+                ", finished=" + isFinished() +
+                '}';
+    }
+}
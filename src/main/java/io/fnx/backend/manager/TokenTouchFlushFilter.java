@@ -0,0 +1,37 @@
+package io.fnx.backend.manager;
+
+import javax.inject.Inject;
+import javax.servlet.*;
+import java.io.IOException;
+
+/**
+ * Flushes the {@link TokenTouchQueue} at the end of each request.
+ *
+ * Should be placed inside Objectify's filter, so the flushed writes are completed before the request ends.
+ */
+public class TokenTouchFlushFilter implements Filter {
+
+    private TokenTouchQueue touchQueue;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (touchQueue != null) touchQueue.flush();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Inject
+    public void setTouchQueue(TokenTouchQueue touchQueue) {
+        this.touchQueue = touchQueue;
+    }
+}
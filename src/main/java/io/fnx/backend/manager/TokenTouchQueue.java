@@ -0,0 +1,141 @@
+package io.fnx.backend.manager;
+
+import com.googlecode.objectify.Objectify;
+import io.fnx.backend.domain.AuthTokenEntity;
+import io.fnx.backend.tools.cache.ExpiringLruCache;
+import io.fnx.backend.tools.ofy.OfyProvider;
+import org.joda.time.Duration;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind queue of auth token touches (see {@link AuthTokenManager#touchToken(AuthTokenEntity)}).
+ * <p>
+ * Touches of the same token are deduplicated: while the token waits in the queue, and for given window after
+ * it has been written. Queued touches are written in batches by {@link #flush()}, which should be called at the end
+ * of each request (see {@link TokenTouchFlushFilter}). The queue is bounded, when it is full it is flushed immediately.
+ * <p>
+ * Flush does not wait for the datastore, make sure Objectify's filter wraps the flushing filter, so pending
+ * writes are completed when the request ends.
+ */
+public class TokenTouchQueue {
+
+    private static final int SAVE_BATCH_SIZE = 500;
+
+    private final int maxPending;
+    private final LinkedHashMap<String, AuthTokenEntity> pending = new LinkedHashMap<>();
+    private final ExpiringLruCache<String, Boolean> recentlyTouched;
+
+    private final AtomicLong touches = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    private OfyProvider ofyProvider;
+
+    public TokenTouchQueue() {
+        this(1000, Duration.standardMinutes(1));
+    }
+
+    /**
+     * @param maxPending maximal number of touches waiting for a flush
+     * @param dedupWindow for how long after writing the touch are other touches of the same token ignored
+     */
+    public TokenTouchQueue(int maxPending, Duration dedupWindow) {
+        if (maxPending <= 0) throw new IllegalArgumentException("Max pending must be > 0, was " + maxPending);
+        this.maxPending = maxPending;
+        this.recentlyTouched = new ExpiringLruCache<>(maxPending * 10, dedupWindow.getMillis());
+    }
+
+    /**
+     * Queues the write of touched token
+     *
+     * @param entity the touched token
+     */
+    public void touch(AuthTokenEntity entity) {
+        if (entity == null || entity.getId() == null) return;
+        touches.incrementAndGet();
+        if (recentlyTouched.get(entity.getId()) != null) {
+            coalesced.incrementAndGet();
+            return;
+        }
+        final boolean full;
+        synchronized (pending) {
+            if (pending.put(entity.getId(), entity) != null) coalesced.incrementAndGet();
+            full = pending.size() >= maxPending;
+        }
+        if (full) flush();
+    }
+
+    /**
+     * Drops the queued touch of given token, so the next flush does not write a destroyed token back.
+     * Further touches of the token are ignored for the dedup window.
+     *
+     * @param token the destroyed token
+     */
+    public void remove(String token) {
+        if (token == null) return;
+        recentlyTouched.put(token, Boolean.TRUE);
+        synchronized (pending) {
+            pending.remove(token);
+        }
+    }
+
+    /**
+     * Writes all queued touches in batches. Does not wait for the datastore to finish.
+     *
+     * @return number of written tokens
+     */
+    public int flush() {
+        final List<AuthTokenEntity> toSave;
+        synchronized (pending) {
+            if (pending.isEmpty()) return 0;
+            toSave = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        final Objectify ofy = ofyProvider.get();
+        for (int from = 0; from < toSave.size(); from += SAVE_BATCH_SIZE) {
+            ofy.save().entities(toSave.subList(from, Math.min(from + SAVE_BATCH_SIZE, toSave.size())));
+        }
+        for (AuthTokenEntity entity : toSave) {
+            recentlyTouched.put(entity.getId(), Boolean.TRUE);
+        }
+        written.addAndGet(toSave.size());
+        return toSave.size();
+    }
+
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return number of all touches received by this queue
+     */
+    public long getTouchCount() {
+        return touches.get();
+    }
+
+    /**
+     * @return number of touches which did not result in a write
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return number of tokens actually written
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    @Inject
+    public void setOfyProvider(OfyProvider ofyProvider) {
+        this.ofyProvider = ofyProvider;
+    }
+}
@@ -2,16 +2,26 @@ package io.fnx.backend.manager;
 
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.Result;
 import com.googlecode.objectify.VoidWork;
 import io.fnx.backend.domain.UniqueIndexEntity;
 import io.fnx.backend.tools.ofy.OfyProvider;
 import io.fnx.backend.tools.ofy.OfyUtils;
+import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import static io.fnx.backend.tools.ofy.OfyUtils.nameToKey;
 import static java.lang.String.format;
 
 /**
@@ -35,13 +45,28 @@ import static java.lang.String.format;
  *       }
  *     });
  * </code>
+ * <p>
+ * When the entity has several unique properties, use {@link #saveUniqueIndexOwners(Map, Key)} which
+ * checks and saves all of them in a single batch.
+ * </p>
+ * <p>
+ * Availability of values (e.g. while user types in a signup form) can be probed by {@link #isAvailable(Enum, String...)},
+ * which can be backed by a per-property Bloom filter, see {@link #rebuildAvailabilityFilter(Enum, int, double, Duration)}.
+ * </p>
  */
 public class UniqueIndexManager {
 
+    /**
+     * Default max age of availability filters
+     */
+    public static final Duration DEFAULT_FILTER_MAX_AGE = Duration.standardMinutes(10);
+
     private Logger log = LoggerFactory.getLogger(UniqueIndexManager.class);
 
     private OfyProvider ofyProvider;
 
+    private final ConcurrentMap<Enum<?>, UniqueValueBloomFilter> availabilityFilters = new ConcurrentHashMap<>();
+
     /**
      * Only single owner can own the combination of property and given value.
      * If called with different owner will throw {@link UniqueViolationException}.
@@ -65,13 +90,102 @@ public class UniqueIndexManager {
         final boolean sameOwner = existing != null && Objects.equals(existing.getOwnerId(), owner);
         if (existing != null && !sameOwner) {
             log.error(format("%s does not own unique value %s", owner, k));
-            throw new UniqueViolationException(format("Unique constraint viloation for proerty [%s]", property.toString()));
+            throw new UniqueViolationException(format("Unique constraint viloation for proerty [%s]", property.toString()),
+                    Collections.singletonList(property.toString()));
         }
-        UniqueIndexEntity index = new UniqueIndexEntity();
-        index.setOwnerId(owner);
-        index.setUniqueKey(k.getName());
+        ofy().save().entities(newIndex(k, owner)).now();
+        markTaken(property, value);
+    }
+
+    /**
+     * Batch variant of {@link #saveUniqueIndexOwner(Enum, String, Key)}. All values are loaded in a single batch,
+     * checked, and saved in a single batch.
+     *
+     * Must be called inside Objectify (cross group) transaction.
+     *
+     * @param values unique values keyed by the property they belong to
+     * @param owner owner of the unique values
+     * @param <E> type of the enum describing the properties
+     * @throws UniqueViolationException listing all violated properties, if any of the values is owned by different owner
+     * @throws IllegalStateException if called outside Objectify transaction {@link Objectify#transact(Runnable)}
+     */
+    public <E extends Enum<E>> void saveUniqueIndexOwners(Map<E, String> values, Key<?> owner) {
+        OfyUtils.assertTransaction(ofy());
+        if (values == null) throw new NullPointerException("Values must not be null!");
+        if (values.isEmpty()) return;
+
+        final Map<Key<UniqueIndexEntity>, E> keys = createKeys(values);
+        final Map<Key<UniqueIndexEntity>, UniqueIndexEntity> existing = ofy().load().keys(keys.keySet());
 
-        ofy().save().entities(index).now();
+        final List<String> violated = new ArrayList<>();
+        final List<UniqueIndexEntity> indexes = new ArrayList<>(keys.size());
+        for (Map.Entry<Key<UniqueIndexEntity>, E> entry : keys.entrySet()) {
+            final UniqueIndexEntity index = existing.get(entry.getKey());
+            if (index != null && !Objects.equals(index.getOwnerId(), owner)) {
+                log.error(format("%s does not own unique value %s", owner, entry.getKey()));
+                violated.add(entry.getValue().toString());
+            }
+            indexes.add(newIndex(entry.getKey(), owner));
+        }
+        if (!violated.isEmpty()) {
+            throw new UniqueViolationException(format("Unique constraint violation for properties %s", violated), violated);
+        }
+        ofy().save().entities(indexes).now();
+        for (Map.Entry<E, String> entry : values.entrySet()) {
+            markTaken(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Moves the ownership from old unique value to the new one (e.g. when user changes their email).
+     * Both values are loaded in a single batch, the new value is claimed and the old one is released
+     * within the same transaction. Nothing is done when the values are equal.
+     *
+     * Must be called inside Objectify (cross group) transaction.
+     *
+     * @param property the property to bind the unique value to (namespace for unique value)
+     * @param oldValue value currently owned by the owner, null if there is none
+     * @param newValue value to be owned by the owner, null to just release the old value
+     * @param owner owner of the unique value
+     * @param <E> type of the enum describing the properties
+     * @throws UniqueViolationException if the old value does not exist or is owned by another owner,
+     *                                  or if the new value is owned by another owner
+     * @throws IllegalStateException if called outside Objectify transaction {@link Objectify#transact(Runnable)}
+     */
+    public <E extends Enum<E>> void changeUniqueValue(E property, String oldValue, String newValue, Key<?> owner) {
+        OfyUtils.assertTransaction(ofy());
+        if (property == null) throw new NullPointerException("Property must not be null!");
+        if (Objects.equals(oldValue, newValue)) return;
+
+        final Key<UniqueIndexEntity> oldKey = oldValue != null ? UniqueIndexEntity.createKey(property, oldValue) : null;
+        final Key<UniqueIndexEntity> newKey = newValue != null ? UniqueIndexEntity.createKey(property, newValue) : null;
+        final List<Key<UniqueIndexEntity>> keys = new ArrayList<>(2);
+        if (oldKey != null) keys.add(oldKey);
+        if (newKey != null) keys.add(newKey);
+        final Map<Key<UniqueIndexEntity>, UniqueIndexEntity> existing = ofy().load().keys(keys);
+
+        if (oldKey != null) {
+            final UniqueIndexEntity oldIndex = existing.get(oldKey);
+            if (oldIndex == null || !Objects.equals(oldIndex.getOwnerId(), owner)) {
+                log.error(format("%s does not own unique value %s", owner, oldKey));
+                throw new UniqueViolationException(format("Old value of property [%s] is not owned by %s", property, owner),
+                        Collections.singletonList(property.toString()));
+            }
+        }
+        if (newKey != null) {
+            final UniqueIndexEntity newIndex = existing.get(newKey);
+            if (newIndex != null && !Objects.equals(newIndex.getOwnerId(), owner)) {
+                log.error(format("%s does not own unique value %s", owner, newKey));
+                throw new UniqueViolationException(format("Unique constraint violation for property [%s]", property),
+                        Collections.singletonList(property.toString()));
+            }
+        }
+
+        final Result<?> saved = newKey != null ? ofy().save().entity(newIndex(newKey, owner)) : null;
+        final Result<?> deleted = oldKey != null ? ofy().delete().key(oldKey) : null;
+        if (saved != null) saved.now();
+        if (deleted != null) deleted.now();
+        markTaken(property, newValue);
     }
 
     /**
@@ -112,6 +226,149 @@ public class UniqueIndexManager {
         ofy().delete().entity(k).now();
     }
 
+    /**
+     * Batch variant of {@link #deleteUniqueIndexOwner(Enum, String)}, evicts all given values in a single batch.
+     *
+     * Must be called inside Objectify (cross group) transaction.
+     *
+     * @param values unique values keyed by the property they belong to
+     * @param <E> type of the enum describing the properties
+     * @throws IllegalStateException if called outside Objectify transaction {@link Objectify#transact(Runnable)}
+     */
+    public <E extends Enum<E>> void deleteUniqueIndexOwners(Map<E, String> values) {
+        OfyUtils.assertTransaction(ofy());
+        if (values == null) throw new NullPointerException("Values must not be null!");
+        if (values.isEmpty()) return;
+
+        ofy().delete().keys(createKeys(values).keySet()).now();
+    }
+
+    /**
+     * Non-transactional probe whether given values are free for the property.
+     *
+     * When availability filter for the property exists, values which are not in the filter are reported
+     * as free without any datastore lookup. The rest of the values is looked up in a single batch.
+     * <p>
+     * The filter knows only values taken when it was built and values claimed on this instance since then.
+     * A value claimed on another instance can therefore be reported as free until the filter expires
+     * (see {@link #rebuildAvailabilityFilter(Enum, int, double, Duration)}), after which all values are looked up
+     * until the filter is rebuilt. The answer is advisory only, use {@link #saveUniqueIndexOwner(Enum, String, Key)}
+     * to actually claim the value.
+     *
+     * @param property the property the values belong to
+     * @param values values to check
+     * @param <E> type of the enum describing the properties
+     * @return map of value to its availability (true if the value is free)
+     */
+    public <E extends Enum<E>> Map<String, Boolean> isAvailable(E property, String... values) {
+        if (property == null) throw new NullPointerException("Property must not be null!");
+        final Map<String, Boolean> result = new LinkedHashMap<>();
+        if (values == null || values.length == 0) return result;
+
+        final UniqueValueBloomFilter filter = getUsableFilter(property);
+        final Map<Key<UniqueIndexEntity>, String> toLookup = new LinkedHashMap<>();
+        for (String value : values) {
+            if (filter != null && !filter.mightContain(value)) {
+                result.put(value, Boolean.TRUE);
+            } else {
+                result.put(value, null);
+                toLookup.put(UniqueIndexEntity.createKey(property, value), value);
+            }
+        }
+        if (toLookup.isEmpty()) return result;
+
+        final Map<Key<UniqueIndexEntity>, UniqueIndexEntity> existing = ofy().transactionless().load().keys(toLookup.keySet());
+        for (Map.Entry<Key<UniqueIndexEntity>, String> entry : toLookup.entrySet()) {
+            final boolean taken = existing.get(entry.getKey()) != null;
+            if (filter != null) filter.recordLookup(taken);
+            result.put(entry.getValue(), !taken);
+        }
+        return result;
+    }
+
+    /**
+     * (Re)builds the availability filter of given property, which expires after {@link #DEFAULT_FILTER_MAX_AGE}.
+     *
+     * @param property the property to build the filter for
+     * @param expectedValues expected number of taken values
+     * @param fpp desired false positive probability
+     * @param <E> type of the enum describing the properties
+     * @return the new filter
+     * @see #rebuildAvailabilityFilter(Enum, int, double, Duration)
+     */
+    public <E extends Enum<E>> UniqueValueBloomFilter rebuildAvailabilityFilter(E property, int expectedValues, double fpp) {
+        return rebuildAvailabilityFilter(property, expectedValues, fpp, DEFAULT_FILTER_MAX_AGE);
+    }
+
+    /**
+     * (Re)builds the availability filter of given property by keys only scan of all its values.
+     *
+     * Filter is then updated by values saved through this manager (on this instance). Deleted values remain
+     * in the filter until next rebuild, which only costs a definitive lookup. Values claimed on other instances
+     * are missing in the filter, which bounds given max age. Rebuild the filter more often than it expires
+     * (e.g. from a cron job), otherwise {@link #isAvailable(Enum, String...)} looks up every value.
+     *
+     * @param property the property to build the filter for
+     * @param expectedValues expected number of taken values
+     * @param fpp desired false positive probability
+     * @param maxAge how long can the filter answer without knowing values claimed on other instances
+     * @param <E> type of the enum describing the properties
+     * @return the new filter
+     */
+    public <E extends Enum<E>> UniqueValueBloomFilter rebuildAvailabilityFilter(E property, int expectedValues, double fpp, Duration maxAge) {
+        if (property == null) throw new NullPointerException("Property must not be null!");
+        if (maxAge == null) throw new NullPointerException("Max age must not be null!");
+        final String prefix = property.toString() + "#";
+        // '$' immediately follows '#', so the range contains exactly the values of the property
+        final Key<UniqueIndexEntity> from = nameToKey(UniqueIndexEntity.class, prefix);
+        final Key<UniqueIndexEntity> to = nameToKey(UniqueIndexEntity.class, property.toString() + "$");
+
+        final UniqueValueBloomFilter filter = new UniqueValueBloomFilter(expectedValues, fpp, maxAge);
+        int count = 0;
+        for (Key<UniqueIndexEntity> k : ofy().transactionless().load().type(UniqueIndexEntity.class)
+                .filterKey(">=", from).filterKey("<", to).chunk(1000).keys()) {
+            filter.put(k.getName().substring(prefix.length()));
+            count++;
+        }
+        availabilityFilters.put(property, filter);
+        log.info(format("Availability filter for property [%s] rebuilt with %d values", property, count));
+        return filter;
+    }
+
+    /**
+     * @param property the property
+     * @return availability filter of given property or null if it has not been built
+     */
+    public UniqueValueBloomFilter getAvailabilityFilter(Enum<?> property) {
+        return availabilityFilters.get(property);
+    }
+
+    private UniqueValueBloomFilter getUsableFilter(Enum<?> property) {
+        final UniqueValueBloomFilter filter = availabilityFilters.get(property);
+        return filter != null && !filter.isExpired() ? filter : null;
+    }
+
+    private void markTaken(Enum<?> property, String value) {
+        final UniqueValueBloomFilter filter = availabilityFilters.get(property);
+        if (filter != null) filter.put(value);
+    }
+
+    private <E extends Enum<E>> Map<Key<UniqueIndexEntity>, E> createKeys(Map<E, String> values) {
+        final Map<Key<UniqueIndexEntity>, E> keys = new LinkedHashMap<>();
+        for (Map.Entry<E, String> entry : values.entrySet()) {
+            if (entry.getKey() == null) throw new NullPointerException("Property must not be null!");
+            keys.put(UniqueIndexEntity.createKey(entry.getKey(), entry.getValue()), entry.getKey());
+        }
+        return keys;
+    }
+
+    private UniqueIndexEntity newIndex(Key<UniqueIndexEntity> k, Key<?> owner) {
+        final UniqueIndexEntity index = new UniqueIndexEntity();
+        index.setOwnerId(owner);
+        index.setUniqueKey(k.getName());
+        return index;
+    }
+
     private Objectify ofy() {
         return ofyProvider.get();
     }
@@ -0,0 +1,132 @@
+package io.fnx.backend.manager;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.joda.time.Duration;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bloom filter of values taken for single unique property, used by
+ * {@link UniqueIndexManager#isAvailable(Enum, String...)}.
+ * <p>
+ * When the filter says the value is not contained, the value was free when the filter was built and it has
+ * not been claimed on this instance since. Values claimed on other instances are not in the filter, so it can
+ * report them as free (false negative). The filter therefore expires after given max age and has to be rebuilt.
+ * <p>
+ * When the filter says the value might be contained, definitive lookup has to be done, and its outcome is
+ * recorded, so the real false positive rate can be measured.
+ */
+public class UniqueValueBloomFilter {
+
+    private final BloomFilter<CharSequence> filter;
+    private final long expiresAt;
+
+    private final AtomicLong negatives = new AtomicLong();
+    private final AtomicLong positives = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    /**
+     * @param expectedValues expected number of taken values
+     * @param fpp desired false positive probability
+     */
+    public UniqueValueBloomFilter(int expectedValues, double fpp) {
+        this.filter = BloomFilter.create(Funnels.unencodedCharsFunnel(), Math.max(expectedValues, 1), fpp);
+        this.expiresAt = Long.MAX_VALUE;
+    }
+
+    /**
+     * @param expectedValues expected number of taken values
+     * @param fpp desired false positive probability
+     * @param maxAge how long after its creation can the filter be used
+     */
+    public UniqueValueBloomFilter(int expectedValues, double fpp, Duration maxAge) {
+        this.filter = BloomFilter.create(Funnels.unencodedCharsFunnel(), Math.max(expectedValues, 1), fpp);
+        this.expiresAt = now() + maxAge.getMillis();
+    }
+
+    /**
+     * @return true if the filter is older than its max age and should not be used anymore
+     */
+    public boolean isExpired() {
+        return now() >= expiresAt;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @param value the value to check
+     * @return false if the value is not taken as far as this filter knows, true if it might be taken
+     */
+    public boolean mightContain(String value) {
+        final boolean result;
+        synchronized (filter) {
+            result = filter.mightContain(value);
+        }
+        (result ? positives : negatives).incrementAndGet();
+        return result;
+    }
+
+    public void put(String value) {
+        if (value == null) return;
+        synchronized (filter) {
+            filter.put(value);
+        }
+    }
+
+    /**
+     * Records outcome of definitive lookup done after {@link #mightContain(String)} returned true.
+     *
+     * @param taken whether the value really was taken
+     */
+    public void recordLookup(boolean taken) {
+        if (!taken) falsePositives.incrementAndGet();
+    }
+
+    /**
+     * @return number of probes answered without any lookup
+     */
+    public long getNegativeCount() {
+        return negatives.get();
+    }
+
+    /**
+     * @return number of probes which needed definitive lookup
+     */
+    public long getPositiveCount() {
+        return positives.get();
+    }
+
+    public long getFalsePositiveCount() {
+        return falsePositives.get();
+    }
+
+    /**
+     * @return measured ratio of free values, which the filter reported as possibly taken
+     */
+    public double getFalsePositiveRate() {
+        final long fp = falsePositives.get();
+        final long free = negatives.get() + fp;
+        return free == 0 ? 0 : (double) fp / free;
+    }
+
+    /**
+     * @return false positive probability estimated from the filter fill
+     */
+    public double getExpectedFalsePositiveRate() {
+        synchronized (filter) {
+            return filter.expectedFpp();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UniqueValueBloomFilter{" +
+                "negatives=" + negatives +
+                ", positives=" + positives +
+                ", falsePositives=" + falsePositives +
+                '}';
+    }
+}
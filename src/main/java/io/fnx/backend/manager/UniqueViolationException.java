@@ -1,8 +1,28 @@
 package io.fnx.backend.manager;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.ArrayList;
+
 public class UniqueViolationException extends RuntimeException {
 
+    private final List<String> violatedProperties;
+
     public UniqueViolationException(String message) {
         super(message);
+        this.violatedProperties = Collections.emptyList();
+    }
+
+    public UniqueViolationException(String message, Collection<String> violatedProperties) {
+        super(message);
+        this.violatedProperties = Collections.unmodifiableList(new ArrayList<>(violatedProperties));
+    }
+
+    /**
+     * @return names of all properties whose unique value is owned by somebody else
+     */
+    public List<String> getViolatedProperties() {
+        return violatedProperties;
     }
 }
@@ -1,7 +1,11 @@
 package io.fnx.backend.tools;
 
 import com.google.inject.AbstractModule;
+import io.fnx.backend.manager.TokenTouchQueue;
 import io.fnx.backend.manager.UniqueIndexManager;
+import io.fnx.backend.tools.authorization.OwnerKeyCache;
+import io.fnx.backend.tools.hydration.HydrationCache;
+import io.fnx.backend.tools.hydration.HydrationCacheProvider;
 import io.fnx.backend.tools.ofy.OfyProvider;
 import io.fnx.backend.tools.random.Randomizer;
 import io.fnx.backend.tools.random.SecureRandomizer;
@@ -22,5 +26,8 @@ public class FnxGaeToolsModule extends AbstractModule {
         bind(Randomizer.class).to(SecureRandomizer.class).in(Singleton.class);
         bind(UniqueIndexManager.class).in(Singleton.class);
         bind(OfyProvider.class).in(Singleton.class);
+        bind(TokenTouchQueue.class).in(Singleton.class);
+        bind(OwnerKeyCache.class).in(Singleton.class);
+        bind(HydrationCache.class).toProvider(HydrationCacheProvider.class);
     }
 }
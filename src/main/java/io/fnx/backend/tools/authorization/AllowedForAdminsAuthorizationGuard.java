@@ -22,6 +22,10 @@ public class AllowedForAdminsAuthorizationGuard implements AuthorizationGuard {
         annotations = Collections.unmodifiableList(res);
     }
 
+    private final AuthorizationFailures failures =
+            new AuthorizationFailures(method -> "Administrator role required for user to call method " + method,
+                    principal -> ", current roles: " + principalRolesToString(principal));
+
     @Override
     @SuppressWarnings("unchecked")
     public Collection<Class<? extends Annotation>> getAnnotationClasses() {
@@ -32,8 +36,7 @@ public class AllowedForAdminsAuthorizationGuard implements AuthorizationGuard {
     public AuthorizationResult guardInvocation(MethodInvocation invocation, Annotation annotation, Principal principal) {
         return principal != null && principal.hasAdminRole()
                 ? AuthorizationResult.SUCCESS
-                : AuthorizationResult.failure("Administrator role required for user to call method " + invocation.getMethod()
-                + ", current roles: " + principalRolesToString(principal));
+                : failures.forMethod(invocation.getMethod());
     }
 
 }
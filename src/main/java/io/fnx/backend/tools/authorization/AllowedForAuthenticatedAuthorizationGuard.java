@@ -20,6 +20,10 @@ public class AllowedForAuthenticatedAuthorizationGuard implements AuthorizationG
         annotations = Collections.unmodifiableList(res);
     }
 
+    private final AuthorizationFailures failures =
+            new AuthorizationFailures(method -> "User must be authenticated to call method " + method,
+                    principal -> ", current roles: " + principalRolesToString(principal));
+
     @Override
     public Collection<Class<? extends Annotation>> getAnnotationClasses() {
         return annotations;
@@ -29,8 +33,7 @@ public class AllowedForAuthenticatedAuthorizationGuard implements AuthorizationG
     public AuthorizationResult guardInvocation(MethodInvocation invocation, Annotation annotation, Principal principal) {
         return isAuthenticated(principal)
                 ? AuthorizationResult.SUCCESS
-                : AuthorizationResult.failure("User must be authenticated to call method " + invocation.getMethod()
-                + ", current roles: " + principalRolesToString(principal));
+                : failures.forMethod(invocation.getMethod());
     }
 
     private boolean isAuthenticated(Principal principal) {
@@ -10,7 +10,10 @@ import java.lang.annotation.Annotation;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static io.fnx.backend.tools.ofy.OfyUtils.idToKey;
 import static io.fnx.backend.tools.ofy.OfyUtils.nameToKey;
@@ -19,6 +22,10 @@ import static java.lang.String.format;
 /**
  * This guard validates, that calling user is owner of all parameters annotated either with
  * {@link IdHasOwner} or {@link KeyHasOwner}, or which implement the {@link OwnedEntity} interface.
+ * <p>
+ * Annotated parameters can also be collections of ids or keys. All owned keys of single call are
+ * loaded in one batch. When {@link OwnerKeyCache} is set (it is not by default), known owners are taken
+ * from there and only the rest of the entities is loaded. See {@link OwnerKeyCache} for its staleness.
  */
 public class AllowedForOwnerAuthorizationGuard implements AuthorizationGuard {
 
@@ -30,57 +37,117 @@ public class AllowedForOwnerAuthorizationGuard implements AuthorizationGuard {
         annotations = Collections.unmodifiableList(res);
     }
 
+    private final AuthorizationFailures failures =
+            new AuthorizationFailures(method -> "Insufficient rights to access method " + method,
+                    principal -> ", user roles: " + principalRolesToString(principal));
+
     private OfyProvider ofyProvider;
 
+    private OwnerKeyCache ownerKeyCache;
+
     @Override
     public Collection<Class<? extends Annotation>> getAnnotationClasses() {
         return annotations;
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public AuthorizationResult guardInvocation(MethodInvocation invocation, Annotation annotation, Principal principal) {
-        final AuthorizationResult failure =
-                AuthorizationResult.failure("Insufficient rights to access method " + invocation.getMethod()
-                        + ", user roles: " + principalRolesToString(principal));
         if (principal == null) {
-            return failure;
+            return failure(invocation);
         }
+        final Key<? extends Principal> principalKey = principal.getPrincipalKey();
 
+        // collect all owned keys first, so they can be loaded in single batch
+        final Set<Key<OwnedEntity<?>>> ownedKeys = new LinkedHashSet<>();
         final Object[] args = invocation.getArguments();
         final Annotation[][] parameterAnnotations = invocation.getMethod().getParameterAnnotations();
         for (int i = 0; i < args.length; i++) {
             final Object arg = args[i];
-            final IdHasOwner ownedId = findHasOwnerId(parameterAnnotations[i]);
-            final KeyHasOwner paramOwnedKey = findHasOwnerKey(parameterAnnotations[i]);
+            if (arg == null) continue;
 
-            final OwnedEntity owned;
             if (arg instanceof OwnedEntity) {
-                owned = (OwnedEntity) arg;
-            } else if (ownedId != null) {
-                final Key<? extends OwnedEntity<?>> ownedKey;
-                if (arg instanceof Long) {
-                    ownedKey = idToKey(ownedId.value(), (Long) arg);
-                } else if (arg instanceof String) {
-                    ownedKey = nameToKey(ownedId.value(), (String) arg);
+                if (!isOwnedBy((OwnedEntity<?>) arg, principalKey)) return failure(invocation);
+                continue;
+            }
+            final IdHasOwner ownedId = findHasOwnerId(parameterAnnotations[i]);
+            if (ownedId != null) {
+                if (arg instanceof Collection) {
+                    for (Object id : (Collection<?>) arg) {
+                        addOwnedIdKey(ownedId, id, ownedKeys);
+                    }
                 } else {
-                    throw new IllegalArgumentException(format("@IdHasOwner can be used only for Long ids or String names. Not for parameters of type %s", arg.getClass()));
+                    addOwnedIdKey(ownedId, arg, ownedKeys);
+                }
+            } else if (findHasOwnerKey(parameterAnnotations[i]) != null) {
+                if (arg instanceof Collection) {
+                    for (Object key : (Collection<?>) arg) {
+                        addOwnedKey(key, ownedKeys);
+                    }
+                } else {
+                    addOwnedKey(arg, ownedKeys);
                 }
-                owned = ofyProvider.get().load().key(ownedKey).now();
-            } else if (paramOwnedKey != null) {
-                owned = ofyProvider.get().load().key((Key<? extends OwnedEntity<?>>) arg).now();
-            } else {
-                continue;
             }
-            if (owned == null) continue;
-            final Key ownerKey = owned.getOwnerKey();
-            if (ownerKey == null) continue;
+        }
+        if (ownedKeys.isEmpty()) return AuthorizationResult.SUCCESS;
+
+        // consult the owner index first, load only the entities whose owner is not known
+        final Set<Key<OwnedEntity<?>>> keysToLoad;
+        if (ownerKeyCache != null) {
+            keysToLoad = new LinkedHashSet<>();
+            for (Key<OwnedEntity<?>> ownedKey : ownedKeys) {
+                final Key<?> cachedOwner = ownerKeyCache.getOwnerKey(ownedKey);
+                if (cachedOwner == null) {
+                    keysToLoad.add(ownedKey);
+                } else if (!cachedOwner.equals(principalKey)) {
+                    return failure(invocation);
+                }
+            }
+            if (keysToLoad.isEmpty()) return AuthorizationResult.SUCCESS;
+        } else {
+            keysToLoad = ownedKeys;
+        }
 
-            if (!ownerKey.equals(principal.getPrincipalKey())) return failure;
+        final Map<Key<OwnedEntity<?>>, OwnedEntity<?>> owned = ofyProvider.get().load().keys(keysToLoad);
+        for (Map.Entry<Key<OwnedEntity<?>>, OwnedEntity<?>> entry : owned.entrySet()) {
+            if (ownerKeyCache != null) ownerKeyCache.saved(entry.getKey(), entry.getValue());
+            if (!isOwnedBy(entry.getValue(), principalKey)) return failure(invocation);
         }
         return AuthorizationResult.SUCCESS;
     }
 
+    private AuthorizationResult failure(MethodInvocation invocation) {
+        return failures.forMethod(invocation.getMethod());
+    }
+
+    private boolean isOwnedBy(OwnedEntity<?> owned, Key<? extends Principal> principalKey) {
+        if (owned == null) return true;
+        final Key<?> ownerKey = owned.getOwnerKey();
+        return ownerKey == null || ownerKey.equals(principalKey);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addOwnedIdKey(IdHasOwner ownedId, Object id, Set<Key<OwnedEntity<?>>> ownedKeys) {
+        if (id == null) return;
+        final Key<? extends OwnedEntity<?>> ownedKey;
+        if (id instanceof Long) {
+            ownedKey = idToKey(ownedId.value(), (Long) id);
+        } else if (id instanceof String) {
+            ownedKey = nameToKey(ownedId.value(), (String) id);
+        } else {
+            throw new IllegalArgumentException(format("@IdHasOwner can be used only for Long ids or String names (or their collections). Not for parameters of type %s", id.getClass()));
+        }
+        ownedKeys.add((Key<OwnedEntity<?>>) ownedKey);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addOwnedKey(Object key, Set<Key<OwnedEntity<?>>> ownedKeys) {
+        if (key == null) return;
+        if (!(key instanceof Key)) {
+            throw new IllegalArgumentException(format("@KeyHasOwner can be used only for Keys (or their collections). Not for parameters of type %s", key.getClass()));
+        }
+        ownedKeys.add((Key<OwnedEntity<?>>) key);
+    }
+
     private IdHasOwner findHasOwnerId(final Annotation[] argAnnotations) {
         for (Annotation argAnnotation : argAnnotations) {
             if (argAnnotation instanceof IdHasOwner) return (IdHasOwner) argAnnotation;
@@ -99,4 +166,15 @@ public class AllowedForOwnerAuthorizationGuard implements AuthorizationGuard {
     public void setOfyProvider(OfyProvider ofyProvider) {
         this.ofyProvider = ofyProvider;
     }
+
+    /**
+     * Enables the owner index, which is not injected on purpose, it must be explicitly opted in. Use the
+     * singleton bound by {@link io.fnx.backend.tools.FnxGaeToolsModule}, so the code saving the owned entities
+     * can evict them from the same instance.
+     *
+     * @param ownerKeyCache index of entity owners, null disables it
+     */
+    public void setOwnerKeyCache(OwnerKeyCache ownerKeyCache) {
+        this.ownerKeyCache = ownerKeyCache;
+    }
 }
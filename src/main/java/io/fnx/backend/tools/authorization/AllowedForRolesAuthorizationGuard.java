@@ -21,12 +21,16 @@ import java.util.List;
 public abstract class AllowedForRolesAuthorizationGuard<T extends Annotation> implements AuthorizationGuard {
 
     private final List<Class<? extends Annotation>> annotations;
+    private final AuthorizationFailures failures;
 
     public AllowedForRolesAuthorizationGuard(Class<T> annotation) {
         if (annotation == null) throw new IllegalArgumentException("Role annotation cannot be null");
         final LinkedList<Class<? extends Annotation>> l = new LinkedList<>();
         l.add(annotation);
         this.annotations = Collections.unmodifiableList(l);
+        this.failures = new AuthorizationFailures(method -> "User has insufficient roles to call " + method
+                + ", needs: " + rolesToString(getRoles(method.getAnnotation(annotation))),
+                principal -> ", current roles: " + principalRolesToString(principal));
     }
 
     @Override
@@ -44,8 +48,7 @@ public abstract class AllowedForRolesAuthorizationGuard<T extends Annotation> im
 
         return userRoles != null && !Collections.disjoint(roles, userRoles)
                 ? AuthorizationResult.SUCCESS
-                : AuthorizationResult.failure("User has insufficient roles " + principalRolesToString(principal)
-                + ", needs: " + rolesToString(roles) + " to call " + invocation.getMethod());
+                : failures.forMethod(invocation.getMethod());
     }
 
     public abstract Collection<PrincipalRole> getRoles(T annotation);
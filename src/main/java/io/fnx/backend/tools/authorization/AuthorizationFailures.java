@@ -0,0 +1,50 @@
+package io.fnx.backend.tools.authorization;
+
+import io.fnx.backend.tools.auth.Principal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Cache of reusable failure {@link AuthorizationResult}s of a single guard, one per guarded method.
+ * <p>
+ * The message of the failure depends only on the method and is built by given message builder on the first
+ * denied call of the method. Principal specific part of the message (e.g. principal roles) is appended only
+ * when the message is rendered, see {@link AuthorizationResult#getMsg(Principal)}.
+ */
+public class AuthorizationFailures {
+
+    private final ConcurrentMap<Method, AuthorizationResult> failures = new ConcurrentHashMap<>();
+    private final Function<Method, String> messageBuilder;
+    private final Function<Principal, String> principalDetail;
+
+    public AuthorizationFailures(Function<Method, String> messageBuilder) {
+        this(messageBuilder, null);
+    }
+
+    /**
+     * @param messageBuilder builder of the method specific message
+     * @param principalDetail builder of the principal specific part of the message, may be null
+     */
+    public AuthorizationFailures(Function<Method, String> messageBuilder, Function<Principal, String> principalDetail) {
+        if (messageBuilder == null) throw new IllegalArgumentException("Message builder cannot be null");
+        this.messageBuilder = messageBuilder;
+        this.principalDetail = principalDetail;
+    }
+
+    /**
+     * @param method guarded method
+     * @return failure result for given method, never null
+     */
+    public AuthorizationResult forMethod(final Method method) {
+        AuthorizationResult failure = failures.get(method);
+        if (failure == null) {
+            failure = AuthorizationResult.failure(messageBuilder.apply(method), principalDetail);
+            final AuthorizationResult existing = failures.putIfAbsent(method, failure);
+            if (existing != null) failure = existing;
+        }
+        return failure;
+    }
+}
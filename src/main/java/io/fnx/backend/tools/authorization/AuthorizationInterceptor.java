@@ -2,13 +2,13 @@ package io.fnx.backend.tools.authorization;
 
 import com.googlecode.objectify.Key;
 import io.fnx.backend.tools.auth.Principal;
-import io.fnx.backend.tools.auth.PrincipalRole;
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
 
 import javax.inject.Provider;
-import java.lang.annotation.Annotation;
-import java.util.Collection;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Main class which should be configured to intercept calls to methods you care about (manager methods?) and
@@ -32,6 +32,9 @@ import java.util.Collection;
  *     // intercept calls to manager methods and check the authorization of these calls
  *     bindInterceptor(Matchers.subclassesOf(Service.class), Matchers.any(), fnxAuthorizationInterceptor);
  * </pre>
+ * <p>
+ * Guards applicable to a method are resolved only once (on the first call) and kept as an {@link AuthorizationPlan},
+ * so the per-call overhead is a single map lookup plus the execution of the applicable guards.
  *
  * @see AuthorizationGuard
  * @see Principal
@@ -40,7 +43,7 @@ public class AuthorizationInterceptor implements MethodInterceptor {
 
     private final boolean strict;
     private final Provider<Principal> principalProvider;
-    private AuthorizationGuard[] guards = new AuthorizationGuard[0];
+    private volatile Guards guards = new Guards(new AuthorizationGuard[0]);
 
     public AuthorizationInterceptor(Provider<Principal> principalProvider) {
         this(principalProvider, true);
@@ -53,54 +56,67 @@ public class AuthorizationInterceptor implements MethodInterceptor {
 
     @Override
     public Object invoke(MethodInvocation invocation) throws Throwable {
-        final AuthorizationResult result = runGuards(invocation);
+        final AuthorizationPlan plan = getPlan(invocation.getMethod());
+
+        if (plan.isEmpty()) {
+            if (strict) throw new PermissionDeniedException(plan.getNoGuardFailure().msg);
+            return invocation.proceed();
+        }
+
+        final Principal principal = principalProvider.get();
+        final AuthorizationResult result = runGuards(plan, invocation, principal);
 
         if (result == null || result.success) {
             return invocation.proceed();
         } else {
-            throw new PermissionDeniedException(result.msg);
+            throw new PermissionDeniedException(() -> result.getMsg(principal));
         }
     }
 
-    private AuthorizationResult runGuards(MethodInvocation invocation) {
+    private AuthorizationResult runGuards(AuthorizationPlan plan, MethodInvocation invocation, Principal principal) {
         AuthorizationResult result = null;
-        int guardInvocationCount = 0;
-
-        for (final AuthorizationGuard guard : guards) {
-            // skip if authorization had already been successful
-            if (result != null && result.success) continue;
-
-            final Collection<Class<? extends Annotation>> annotationClasses = guard.getAnnotationClasses();
-            if (annotationClasses == null) continue;
-            for (Class<? extends Annotation> annotationClass : annotationClasses) {
-                if (annotationClass == null) continue;
-                final Annotation annotation = invocation.getMethod().getAnnotation(annotationClass);
-                if (annotation != null) {
-                    guardInvocationCount++;
-                    final AuthorizationResult inspectionResult = guard.guardInvocation(invocation, annotation, principalProvider.get());
-                    if (result == null) { // seed authorization outcome from the first result
-                        result = inspectionResult;
-                    } else if (inspectionResult != null && inspectionResult.success) { // allow the total outcome to be changed to success
-                        result = inspectionResult;                                     // so when first authorization guard suggests failure
-                        // other guards might allow the call (they are additive)
-                    }
-                }
+        for (int i = 0; i < plan.size(); i++) {
+            final AuthorizationResult inspectionResult = plan.getGuard(i).guardInvocation(invocation, plan.getAnnotation(i), principal);
+            if (result == null) { // seed authorization outcome from the first result
+                result = inspectionResult;
+            } else if (inspectionResult != null && inspectionResult.success) { // allow the total outcome to be changed to success
+                result = inspectionResult;                                     // so when first authorization guard suggests failure
+                // other guards might allow the call (they are additive)
             }
+            // skip the rest if authorization had already been successful
+            if (result != null && result.success) break;
         }
+        return result;
+    }
 
-        if (strict && guardInvocationCount == 0) {
-            return AuthorizationResult.failure("No guard was set for method " + invocation.getMethod()
-                    + ", see @AllowedFor... annotations");
+    private AuthorizationPlan getPlan(Method method) {
+        // single read, so the plan is always compiled against the guards of the map it is stored to
+        final Guards current = guards;
+        AuthorizationPlan plan = current.plans.get(method);
+        if (plan == null) {
+            plan = AuthorizationPlan.compile(method, current.guards);
+            final AuthorizationPlan existing = current.plans.putIfAbsent(method, plan);
+            if (existing != null) plan = existing;
         }
-
-        return result;
+        return plan;
     }
 
+    /**
+     * Replaces the guards, plans compiled for the previous guards are discarded
+     */
     public void setGuards(AuthorizationGuard[] guards) {
-        if (guards != null) {
+        this.guards = new Guards(guards != null ? guards.clone() : new AuthorizationGuard[]{});
+    }
+
+    /**
+     * Guards together with the plans compiled for them, replaced as a whole
+     */
+    private static final class Guards {
+        private final AuthorizationGuard[] guards;
+        private final ConcurrentMap<Method, AuthorizationPlan> plans = new ConcurrentHashMap<>();
+
+        Guards(AuthorizationGuard[] guards) {
             this.guards = guards;
-        } else {
-            this.guards = new AuthorizationGuard[]{};
         }
     }
 }
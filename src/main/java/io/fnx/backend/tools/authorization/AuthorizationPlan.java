@@ -0,0 +1,71 @@
+package io.fnx.backend.tools.authorization;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable list of guards (and their resolved annotations) applicable to a single method.
+ * <p>
+ * Plans are compiled once per {@link Method} by the {@link AuthorizationInterceptor}, so the reflective
+ * annotation lookups do not have to be repeated on every call.
+ */
+final class AuthorizationPlan {
+
+    private final AuthorizationGuard[] guards;
+    private final Annotation[] annotations;
+    private final AuthorizationResult noGuardFailure;
+
+    private AuthorizationPlan(Method method, AuthorizationGuard[] guards, Annotation[] annotations) {
+        this.guards = guards;
+        this.annotations = annotations;
+        this.noGuardFailure = guards.length > 0 ? null : AuthorizationResult.failure("No guard was set for method " + method
+                + ", see @AllowedFor... annotations");
+    }
+
+    static AuthorizationPlan compile(Method method, AuthorizationGuard[] guards) {
+        final List<AuthorizationGuard> planGuards = new ArrayList<>();
+        final List<Annotation> planAnnotations = new ArrayList<>();
+
+        for (final AuthorizationGuard guard : guards) {
+            final Collection<Class<? extends Annotation>> annotationClasses = guard.getAnnotationClasses();
+            if (annotationClasses == null) continue;
+            for (Class<? extends Annotation> annotationClass : annotationClasses) {
+                if (annotationClass == null) continue;
+                final Annotation annotation = method.getAnnotation(annotationClass);
+                if (annotation != null) {
+                    planGuards.add(guard);
+                    planAnnotations.add(annotation);
+                }
+            }
+        }
+        return new AuthorizationPlan(method,
+                planGuards.toArray(new AuthorizationGuard[planGuards.size()]),
+                planAnnotations.toArray(new Annotation[planAnnotations.size()]));
+    }
+
+    int size() {
+        return guards.length;
+    }
+
+    boolean isEmpty() {
+        return guards.length == 0;
+    }
+
+    /**
+     * @return reusable failure for strict interceptors, when no guard applies to the method
+     */
+    AuthorizationResult getNoGuardFailure() {
+        return noGuardFailure;
+    }
+
+    AuthorizationGuard getGuard(int i) {
+        return guards[i];
+    }
+
+    Annotation getAnnotation(int i) {
+        return annotations[i];
+    }
+}
@@ -1,16 +1,59 @@
 package io.fnx.backend.tools.authorization;
 
+import io.fnx.backend.tools.auth.Principal;
+
+import java.util.function.Function;
+
+/**
+ * Outcome of a single {@link AuthorizationGuard} check.
+ * <p>
+ * Failures are usually reused for all calls of a method (see {@link AuthorizationFailures}), so their
+ * {@link #msg} contains only the caller independent part of the message. Caller specific detail
+ * (e.g. principal roles) is appended by {@link #getMsg(Principal)} only when somebody asks for it
+ * (typically when {@link PermissionDeniedException} is logged), so denied calls do not produce garbage strings.
+ */
 public class AuthorizationResult {
     public static final AuthorizationResult SUCCESS = new AuthorizationResult(true, null);
     public final boolean success;
     public final String msg;
+    private final Function<Principal, String> principalDetail;
 
     public AuthorizationResult(final boolean success, final String msg) {
+        this(success, msg, null);
+    }
+
+    private AuthorizationResult(final boolean success, final String msg, final Function<Principal, String> principalDetail) {
         this.success = success;
         this.msg = msg;
+        this.principalDetail = principalDetail;
+    }
+
+    /**
+     * @return caller independent message describing the result
+     */
+    public String getMsg() {
+        return msg;
+    }
+
+    /**
+     * @param principal principal of the call the result was returned for
+     * @return message with the principal specific detail appended, built on every call
+     */
+    public String getMsg(Principal principal) {
+        if (principalDetail == null) return msg;
+        return msg + principalDetail.apply(principal);
     }
 
     public static AuthorizationResult failure(String msg) {
         return new AuthorizationResult(false, msg);
     }
+
+    /**
+     * @param msg caller independent message
+     * @param principalDetail builder of the principal specific part of the message, see {@link #getMsg(Principal)}
+     * @return failure which can be reused for different principals
+     */
+    public static AuthorizationResult failure(String msg, Function<Principal, String> principalDetail) {
+        return new AuthorizationResult(false, msg, principalDetail);
+    }
 }
@@ -9,6 +9,8 @@ import java.lang.annotation.Target;
  * Marks parameter as Owned. This parameter will then be subjected
  * to ownership check when on method marked with {@link AllowedForOwnerAuthorizationGuard}.
  *
+ * Parameter can be a Long id, String name or a collection of them.
+ *
  * @see KeyHasOwner
  * @see OwnedEntity
  * @see AllowedForOwnerAuthorizationGuard
@@ -9,6 +9,8 @@ import java.lang.annotation.Target;
  * Marks parameter as Owned. This parameter will then be subjected
  * to ownership check when on method marked with {@link AllowedForOwnerAuthorizationGuard}.
  *
+ * Parameter can be a Key or a collection of Keys.
+ *
  * @see AllowedForOwnerAuthorizationGuard
  */
 @Retention(RetentionPolicy.RUNTIME) @Target({ElementType.PARAMETER})
@@ -0,0 +1,101 @@
+package io.fnx.backend.tools.authorization;
+
+import com.googlecode.objectify.Key;
+import io.fnx.backend.tools.cache.ExpiringLruCache;
+import org.joda.time.Duration;
+
+import javax.inject.Inject;
+
+/**
+ * Compact in-process index of <code>entityKey -&gt; ownerKey</code> used by {@link AllowedForOwnerAuthorizationGuard},
+ * so the ownership check does not have to load (and deserialize) whole {@link OwnedEntity} instances.
+ * <p>
+ * Single instance is bound as a singleton by {@link io.fnx.backend.tools.FnxGaeToolsModule}, but the guard
+ * does not use it unless it is opted in via {@link AllowedForOwnerAuthorizationGuard#setOwnerKeyCache(OwnerKeyCache)}.
+ * <p>
+ * The guard fills the index from the entities it has to load. Code saving or deleting owned entities
+ * (typically managers) should keep the index current through the injected instance, e.g.:
+ * <pre>
+ *     &#64;Inject
+ *     private OwnerKeyCache ownerKeyCache;
+ *
+ *     public void saveDocument(Document document) {
+ *         ofy().save().entity(document).now();
+ *         ownerKeyCache.saved(Key.create(document), document);
+ *     }
+ * </pre>
+ * <b>Staleness:</b> the index is local to the instance. An owner changed (or an entity deleted) on another
+ * instance is still answered from the index until the entry expires after given TTL, so during that time
+ * the previous owner keeps access to the entity. Use the index only for entities whose owner never changes,
+ * or where such a window is acceptable.
+ */
+public class OwnerKeyCache {
+
+    private final ExpiringLruCache<Key<?>, Key<?>> owners;
+
+    @Inject
+    public OwnerKeyCache() {
+        this(10_000, Duration.standardMinutes(10));
+    }
+
+    /**
+     * @param maxSize maximal number of cached owners
+     * @param ttl how long is the cached owner considered valid
+     */
+    public OwnerKeyCache(int maxSize, Duration ttl) {
+        this.owners = new ExpiringLruCache<>(maxSize, ttl.getMillis());
+    }
+
+    /**
+     * @param entityKey key of the owned entity
+     * @return cached owner key of given entity or null if it is not known
+     */
+    public Key<?> getOwnerKey(Key<?> entityKey) {
+        return owners.get(entityKey);
+    }
+
+    /**
+     * Updates the index after given entity has been saved
+     *
+     * @param entityKey key of the saved entity
+     * @param entity the saved entity
+     */
+    public void saved(Key<?> entityKey, OwnedEntity<?> entity) {
+        owners.put(entityKey, entity != null ? entity.getOwnerKey() : null);
+    }
+
+    /**
+     * Removes given entity from the index
+     *
+     * @param entityKey key of the deleted entity
+     */
+    public void deleted(Key<?> entityKey) {
+        owners.invalidate(entityKey);
+    }
+
+    public void clear() {
+        owners.invalidateAll();
+    }
+
+    public long getHits() {
+        return owners.getHits();
+    }
+
+    public long getMisses() {
+        return owners.getMisses();
+    }
+
+    /**
+     * @return ratio of ownership lookups answered from the index
+     */
+    public double getHitRatio() {
+        final long hits = getHits();
+        final long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "OwnerKeyCache" + owners;
+    }
+}
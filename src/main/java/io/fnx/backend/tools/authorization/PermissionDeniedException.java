@@ -1,11 +1,43 @@
 package io.fnx.backend.tools.authorization;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.function.Supplier;
+
 public class PermissionDeniedException extends RuntimeException {
 
+    private transient Supplier<String> messageSupplier;
+    private String message;
+
     public PermissionDeniedException() {
     }
 
     public PermissionDeniedException(String message) {
         super(message);
+        this.message = message;
+    }
+
+    /**
+     * The message is built only when it is requested (e.g. when the exception is logged).
+     *
+     * @param messageSupplier builder of the exception message
+     */
+    public PermissionDeniedException(Supplier<String> messageSupplier) {
+        this.messageSupplier = messageSupplier;
+    }
+
+    @Override
+    public synchronized String getMessage() {
+        if (message == null && messageSupplier != null) {
+            message = messageSupplier.get();
+            messageSupplier = null;
+        }
+        return message;
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        // the supplier is not serializable, so the message has to be built before it is lost
+        getMessage();
+        out.defaultWriteObject();
     }
 }
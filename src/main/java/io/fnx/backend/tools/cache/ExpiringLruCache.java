@@ -0,0 +1,183 @@
+package io.fnx.backend.tools.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small in-process cache bounded both by size (least recently used entries are evicted first)
+ * and by time to live of every entry.
+ * <p>
+ * The cache is thread safe and keeps hit / miss / eviction counters, so its efficiency can be monitored.
+ * Null values are not supported.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the cached values
+ */
+public class ExpiringLruCache<K, V> {
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxSize maximal number of entries kept in the cache
+     * @param ttlMillis time (in milliseconds) after which the entry expires
+     */
+    public ExpiringLruCache(final int maxSize, final long ttlMillis) {
+        if (maxSize <= 0) throw new IllegalArgumentException("Cache size must be > 0, was " + maxSize);
+        if (ttlMillis <= 0) throw new IllegalArgumentException("Cache TTL must be > 0, was " + ttlMillis);
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > ExpiringLruCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param key the key to look up
+     * @return cached value or null, if there is no such value or it has already expired
+     */
+    public V get(K key) {
+        if (key == null) return null;
+        final long now = now();
+        synchronized (entries) {
+            final Entry<V> entry = entries.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            if (entry != null) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Puts the value to the cache, replacing any previous value.
+     *
+     * @param key the key
+     * @param value the value, null value just invalidates the key
+     */
+    public void put(K key, V value) {
+        if (key == null) return;
+        if (value == null) {
+            invalidate(key);
+            return;
+        }
+        final Entry<V> entry = new Entry<>(value, now() + ttlMillis);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Removes given key from the cache
+     *
+     * @param key the key to remove
+     */
+    public void invalidate(K key) {
+        if (key == null) return;
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Removes all entries from the cache
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Removes all expired entries from the cache
+     *
+     * @return number of removed entries
+     */
+    public int removeExpired() {
+        final long now = now();
+        int removed = 0;
+        synchronized (entries) {
+            final Iterator<Entry<V>> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().expiresAt <= now) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        evictions.addAndGet(removed);
+        return removed;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of entries removed because the cache was full or because they had expired
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+                "size=" + size() +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                '}';
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
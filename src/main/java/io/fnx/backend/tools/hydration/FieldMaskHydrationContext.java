@@ -0,0 +1,34 @@
+package io.fnx.backend.tools.hydration;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Hydration context of calls which requested only some of the fields (e.g. <code>?fields=id,title,author</code>).
+ *
+ * {@link Hydrator} skips recipes and steps which declare populated fields (see
+ * {@link HydrationRecipeStep#getPopulatedFields()}) none of which was requested, and does not fetch
+ * their dependencies.
+ */
+public interface FieldMaskHydrationContext extends HydrationContext {
+
+	/**
+	 * @return names of requested fields, null if all fields are requested
+	 */
+	Set<String> getRequestedFields();
+
+	/**
+	 * Override to support nested field paths or wildcards.
+	 *
+	 * @param fields fields populated by a step or recipe
+	 * @return true if at least one of the fields was requested
+	 */
+	default boolean isAnyRequested(Collection<String> fields) {
+		final Set<String> requested = getRequestedFields();
+		if (requested == null) return true;
+		for (String field : fields) {
+			if (requested.contains(field)) return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,117 @@
+package io.fnx.backend.tools.hydration;
+
+import com.googlecode.objectify.Key;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of entities fetched by the {@link Hydrator}, shared by all hydrations of single request.
+ * Later hydrations take the entities from here and fetch only the missing ones.
+ * <p>
+ * Keys which were not found are remembered as well, so references to deleted entities
+ * are not fetched again within the request.
+ *
+ * @see HydrationCacheProvider
+ */
+public class HydrationCache {
+
+	private final Map<Key<Object>, Object> entities = new ConcurrentHashMap<>();
+
+	private final Set<Key<Object>> missingKeys = ConcurrentHashMap.newKeySet();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Copies cached entities for given keys to the <code>found</code> map.
+	 *
+	 * @param keys keys to look up
+	 * @param found map to put the cached entities to
+	 * @return keys which are not cached
+	 */
+	public Set<Key<Object>> lookup(Set<Key<Object>> keys, Map<Key<Object>, Object> found) {
+		return lookup(keys, found, null);
+	}
+
+	/**
+	 * Copies cached entities for given keys to the <code>found</code> map, and keys known not to exist
+	 * to the <code>knownMissing</code> set.
+	 *
+	 * @param keys keys to look up
+	 * @param found map to put the cached entities to
+	 * @param knownMissing set to put the keys known not to exist to, can be null
+	 * @return keys which are neither cached, nor known not to exist
+	 */
+	public Set<Key<Object>> lookup(Set<Key<Object>> keys, Map<Key<Object>, Object> found, Set<Key<Object>> knownMissing) {
+		final Set<Key<Object>> missing = new HashSet<>();
+		for (Key<Object> key : keys) {
+			final Object entity = entities.get(key);
+			if (entity != null) {
+				found.put(key, entity);
+			} else if (!missingKeys.isEmpty() && missingKeys.contains(key)) {
+				if (knownMissing != null) knownMissing.add(key);
+			} else {
+				missing.add(key);
+			}
+		}
+		hits.addAndGet(keys.size() - missing.size());
+		misses.addAndGet(missing.size());
+		return missing;
+	}
+
+	public void putAll(Map<Key<Object>, Object> fetched) {
+		for (Map.Entry<Key<Object>, Object> entry : fetched.entrySet()) {
+			if (entry.getKey() != null && entry.getValue() != null) {
+				entities.put(entry.getKey(), entry.getValue());
+				if (!missingKeys.isEmpty()) missingKeys.remove(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Remembers keys of entities which do not exist.
+	 */
+	public void putMissing(Collection<Key<Object>> keys) {
+		missingKeys.addAll(keys);
+	}
+
+	public boolean isMissing(Key<?> key) {
+		return missingKeys.contains(key);
+	}
+
+	public void clear() {
+		entities.clear();
+		missingKeys.clear();
+	}
+
+	public int size() {
+		return entities.size();
+	}
+
+	public int getMissingCount() {
+		return missingKeys.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		return "HydrationCache{" +
+				"size=" + size() +
+				", missing=" + getMissingCount() +
+				", hits=" + hits +
+				", misses=" + misses +
+				'}';
+	}
+}
@@ -0,0 +1,28 @@
+package io.fnx.backend.tools.hydration;
+
+import javax.servlet.*;
+import java.io.IOException;
+
+/**
+ * Delimits the scope of the request {@link HydrationCache}.
+ */
+public class HydrationCacheFilter implements Filter {
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		HydrationCacheProvider.begin();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			HydrationCacheProvider.end();
+		}
+	}
+
+	@Override
+	public void destroy() {
+	}
+}
@@ -0,0 +1,34 @@
+package io.fnx.backend.tools.hydration;
+
+import javax.inject.Provider;
+
+/**
+ * Provides {@link HydrationCache} bound to the current request.
+ *
+ * The request scope is delimited by {@link HydrationCacheFilter} (or by {@link #begin()} and {@link #end()}).
+ * Outside of it every call returns new empty cache, so nothing is shared.
+ */
+public class HydrationCacheProvider implements Provider<HydrationCache> {
+
+	private static final ThreadLocal<HydrationCache> current = new ThreadLocal<>();
+
+	@Override
+	public HydrationCache get() {
+		final HydrationCache cache = current.get();
+		return cache != null ? cache : new HydrationCache();
+	}
+
+	/**
+	 * Starts new request scope on the current thread
+	 */
+	public static void begin() {
+		current.set(new HydrationCache());
+	}
+
+	/**
+	 * Ends the request scope on the current thread
+	 */
+	public static void end() {
+		current.remove();
+	}
+}
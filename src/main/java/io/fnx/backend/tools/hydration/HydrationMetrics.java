@@ -0,0 +1,89 @@
+package io.fnx.backend.tools.hydration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measurements of single hydration call, published to the {@link HydrationMetricsListener}.
+ * <p>
+ * Key counts include nested dependencies. Fetch time covers issuing of the fetch and waiting for its result,
+ * so for async hydrations it does not include the work done by the caller in between.
+ * <p>
+ * When entities of single call use recipes of several classes, separate metrics are published for each
+ * recipe class. Dependencies of all of them are still fetched in single batch, so the fetch figures
+ * ({@link #getDistinctKeys()}, {@link #getKeysFound()}, {@link #getFetchNanos()}) are those of the shared batch.
+ */
+public class HydrationMetrics {
+
+	private final Class<?> recipeClass;
+
+	int entityCount;
+	int keysRequested;
+	int distinctKeys;
+	int keysFound;
+	long keyCollectionNanos;
+	long fetchNanos;
+	long stepNanos;
+
+	HydrationMetrics(Class<?> recipeClass) {
+		this.recipeClass = recipeClass;
+	}
+
+	/**
+	 * @return class of the recipe the measured entities were hydrated with
+	 */
+	public Class<?> getRecipeClass() {
+		return recipeClass;
+	}
+
+	public int getEntityCount() {
+		return entityCount;
+	}
+
+	/**
+	 * @return number of dependencies returned by the steps, including duplicates
+	 */
+	public int getKeysRequested() {
+		return keysRequested;
+	}
+
+	public int getDistinctKeys() {
+		return distinctKeys;
+	}
+
+	/**
+	 * @return number of entities which were found (fetched or taken from {@link HydrationCache})
+	 */
+	public int getKeysFound() {
+		return keysFound;
+	}
+
+	public long getKeyCollectionNanos() {
+		return keyCollectionNanos;
+	}
+
+	public long getFetchNanos() {
+		return fetchNanos;
+	}
+
+	public long getStepNanos() {
+		return stepNanos;
+	}
+
+	public long getTotalMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(keyCollectionNanos + fetchNanos + stepNanos);
+	}
+
+	@Override
+	public String toString() {
+		return "HydrationMetrics{" +
+				"recipe=" + recipeClass.getName() +
+				", entities=" + entityCount +
+				", keysRequested=" + keysRequested +
+				", distinctKeys=" + distinctKeys +
+				", keysFound=" + keysFound +
+				", keyCollectionMicros=" + TimeUnit.NANOSECONDS.toMicros(keyCollectionNanos) +
+				", fetchMicros=" + TimeUnit.NANOSECONDS.toMicros(fetchNanos) +
+				", stepMicros=" + TimeUnit.NANOSECONDS.toMicros(stepNanos) +
+				'}';
+	}
+}
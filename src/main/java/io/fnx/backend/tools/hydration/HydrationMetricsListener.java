@@ -0,0 +1,15 @@
+package io.fnx.backend.tools.hydration;
+
+/**
+ * Receives metrics of every hydration done by the {@link Hydrator}, see {@link Hydrator#setMetricsListener}.
+ *
+ * @see Slf4jHydrationMetricsListener
+ * @see InMemoryHydrationMetricsListener
+ */
+public interface HydrationMetricsListener {
+
+	/**
+	 * Called after the steps of the hydration were executed, on the thread which executed them.
+	 */
+	void hydrated(HydrationMetrics metrics);
+}
@@ -1,5 +1,6 @@
 package io.fnx.backend.tools.hydration;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -13,5 +14,25 @@ public interface HydrationRecipe<ENTITY, HC extends HydrationContext> {
      * @return Collection of properties to hydrate
      */
     List<HydrationRecipeStep<ENTITY, HC>> buildSteps(ENTITY entity, HC ctx);
-    
+
+    /**
+     * Recipes whose steps depend neither on the entity nor on the context can be compiled. Hydrator then
+     * uses the same steps for whole collection, instead of building the plan for every entity.
+     *
+     * @return steps shared by all entities, or null if the steps have to be built for each entity
+     */
+    default List<HydrationRecipeStep<ENTITY, HC>> compile() {
+        return null;
+    }
+
+    /**
+     * Names of the output fields populated by the recipe. When the context is {@link FieldMaskHydrationContext}
+     * and none of them was requested, no step of the recipe is executed.
+     *
+     * @return populated fields, or null (default) if the recipe has to run always
+     */
+    default Collection<String> getPopulatedFields() {
+        return null;
+    }
+
 }
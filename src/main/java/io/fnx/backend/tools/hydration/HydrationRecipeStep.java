@@ -35,4 +35,28 @@ public interface HydrationRecipeStep<ENTITY, HC extends HydrationContext> {
 	 */
 	void executeStep(ENTITY entity, HC context, Map<Key<Object>, Object> allFetchedEntities);
 
+	/**
+	 * Gives the Hydrator information about keys, which can be known only after the dependencies of previous
+	 * level are fetched (article -&gt; author -&gt; author's avatar). Hydrator fetches each level in single batch
+	 * for all entities, up to its maximal depth.
+	 *
+	 * Note: null or empty collection means there are no more dependencies for this step and entity.
+	 *
+	 * @param depth level of the nested dependencies, starting with 1 (keys from {@link #getDependencies} are level 0)
+	 * @param fetchedEntities all entities fetched so far
+	 */
+	default Collection<Key<?>> getNestedDependencies(ENTITY entity, HC context, int depth, Map<Key<Object>, Object> fetchedEntities) {
+		return null;
+	}
+
+	/**
+	 * Names of the output fields this step populates. When the context is {@link FieldMaskHydrationContext}
+	 * and none of them was requested, the step is neither executed nor are its dependencies fetched.
+	 *
+	 * Note: null (default) means the step always runs, which is required e.g. for steps removing sensitive data.
+	 */
+	default Collection<String> getPopulatedFields() {
+		return null;
+	}
+
 }
@@ -1,10 +1,17 @@
 package io.fnx.backend.tools.hydration;
 
+import com.google.apphosting.api.ApiProxy;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
 import io.fnx.backend.tools.ofy.OfyProvider;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
 
 /**
  * Hydrator is a two phase mechanism to decorate (or strip) entities you want to deliver view REST API (or so).
@@ -18,11 +25,47 @@ import java.util.*;
  *
  * You can (and should) use hydration mechanism to remove sensitive data from outgoing entities.
  *
+ * Steps can declare nested dependencies (see {@link HydrationRecipeStep#getNestedDependencies}), which are
+ * fetched breadth first - one batch per level for the whole collection, up to {@link #setMaxDepth(int)} levels.
+ *
+ * Async variants ({@link #hydrateCollectionAsync}) only issue the fetch and return {@link PendingHydration},
+ * which executes the steps when joined.
+ *
+ * Large result sets can be streamed through {@link #hydrateIterator}, which hydrates them in bounded chunks.
+ *
+ * When {@link HydrationCache} is provided, entities fetched by earlier hydrations of the same request are
+ * taken from it, and only the missing keys are fetched.
+ *
+ * CPU heavy steps marked as {@link ThreadSafeHydrationStep} can be executed in parallel,
+ * see {@link #setParallelPool(ForkJoinPool)}.
+ *
+ * When the context is {@link FieldMaskHydrationContext}, steps populating only fields which were not
+ * requested are skipped, and their dependencies are not fetched.
+ *
+ * Dependencies which do not exist are handled according to {@link MissingDependencyPolicy}, see
+ * {@link #setMissingDependencyPolicy}.
+ *
+ * Each hydration can be measured by {@link HydrationMetricsListener}, see {@link #setMetricsListener}.
+ *
  */
 public class Hydrator {
 
 	private final OfyProvider ofyProvider;
 
+	private int maxDepth = 3;
+
+	private Provider<HydrationCache> cacheProvider;
+
+	private HydrationMetricsListener metricsListener;
+
+	private ForkJoinPool parallelPool;
+
+	private int parallelThreshold = 100;
+
+	private MissingDependencyPolicy missingDependencyPolicy = MissingDependencyPolicy.IGNORE;
+
+	private Function<Key<Object>, Object> placeholderFactory;
+
 	@Inject
 	public Hydrator(OfyProvider ofyProvider) {
 		this.ofyProvider = ofyProvider;
@@ -46,85 +89,701 @@ public class Hydrator {
 	 * Generic entities with shared recipe.
 	 */
 	public <ENTITY, HC extends HydrationContext> void hydrateCollection(Iterable<ENTITY> entities, HydrationRecipe<ENTITY, HC> recipe, HC ctx) {
+		hydrateCollectionAsync(entities, recipe, ctx).now();
+	}
+
+	/**
+	 * Each entity is CanBeHydrated and creates it's own recipe. Entities sharing the same recipe instance
+	 * are hydrated as a group (in order of their first occurrence), so compiled recipes build their plan
+	 * only once per group. Dependencies of all groups are still fetched in single batch.
+	 */
+	public <ENTITY extends CanBeHydrated<ENTITY, HC>, HC extends HydrationContext> void hydrateCollection(Iterable<ENTITY> entities, HC ctx) {
+		hydrateCollectionAsync(entities, ctx).now();
+	}
+
+	/**
+	 * Generic entities with shared recipe. Collects the keys and issues the fetch, but does not wait for it.
+	 * Steps are executed when {@link PendingHydration#now()} is called, so the caller can do other work
+	 * (e.g. its own queries) while the entities are being fetched.
+	 */
+	public <ENTITY, HC extends HydrationContext> PendingHydration hydrateCollectionAsync(Iterable<ENTITY> entities, HydrationRecipe<ENTITY, HC> recipe, HC ctx) {
+		return startHydration(entities, recipe, ctx, getCache());
+	}
+
+	/**
+	 * Each entity is CanBeHydrated and creates it's own recipe. Collects the keys and issues the fetch,
+	 * steps are executed when {@link PendingHydration#now()} is called.
+	 */
+	public <ENTITY extends CanBeHydrated<ENTITY, HC>, HC extends HydrationContext> PendingHydration hydrateCollectionAsync(Iterable<ENTITY> entities, HC ctx) {
+		return startHydration(entities, ctx, getCache());
+	}
+
+	/**
+	 * Streaming variant for large result sets (exports). Entities are hydrated in chunks of given size,
+	 * dependencies of the next chunk are fetched while steps of the current chunk are executed.
+	 * <p>
+	 * The request {@link HydrationCache} is not used, and the Objectify session is cleared after steps of each
+	 * chunk are executed, so fetched entities are held only by the current and the prefetched chunk. Entities
+	 * loaded earlier in the request are then loaded again on their next access, so do not stream inside
+	 * a transaction.
+	 *
+	 * @param entities source of the entities (e.g. query iterator)
+	 * @param chunkSize number of entities hydrated (and fetched) in one batch
+	 * @return iterator of hydrated entities
+	 */
+	public <ENTITY, HC extends HydrationContext> Iterator<ENTITY> hydrateIterator(Iterator<ENTITY> entities, HydrationRecipe<ENTITY, HC> recipe, HC ctx, int chunkSize) {
+		return new ChunkedHydrationIterator<>(entities, chunkSize, chunk -> startHydration(chunk, recipe, ctx, null), this::clearSession);
+	}
+
+	/**
+	 * Streaming variant of {@link #hydrateCollection(Iterable, HydrationContext)} for large result sets,
+	 * see {@link #hydrateIterator(Iterator, HydrationRecipe, HydrationContext, int)}.
+	 */
+	public <ENTITY extends CanBeHydrated<ENTITY, HC>, HC extends HydrationContext> Iterator<ENTITY> hydrateIterator(Iterator<ENTITY> entities, HC ctx, int chunkSize) {
+		return new ChunkedHydrationIterator<>(entities, chunkSize, chunk -> startHydration(chunk, ctx, null), this::clearSession);
+	}
+
+	private <ENTITY, HC extends HydrationContext> PendingHydration startHydration(Iterable<ENTITY> entities, HydrationRecipe<ENTITY, HC> recipe, HC ctx, HydrationCache cache) {
+		// metrics are neither allocated nor measured when nobody listens
+		final HydrationMetrics metrics = metricsListener != null ? new HydrationMetrics(recipe.getClass()) : null;
+		final long start = metrics != null ? System.nanoTime() : 0;
+
+		final FieldMaskHydrationContext fieldMask = fieldMask(ctx);
+		final List<HydrationRecipeStep<ENTITY, HC>> compiledSteps = maskSteps(recipe, recipe.compile(), fieldMask);
+		if (compiledSteps != null) {
+			// single shared plan for all entities
+			final HydrationRecipeInstance<ENTITY, HC> instance = new HydrationRecipeInstance<>(toList(entities), compiledSteps, metrics);
+			final Set<Key<Object>> keysToFetch = new HashSet<>(capacityFor(instance.getEntities().size() * compiledSteps.size()));
+			fetchKeys(ctx, instance, keysToFetch);
+			if (metrics != null) metrics.keyCollectionNanos = System.nanoTime() - start;
+			return executeHydration(Collections.singletonList(instance), ctx, keysToFetch, cache, metrics != null ? Collections.singletonList(metrics) : null);
+		}
 
 		Set<Key<Object>> keysToFetch = new HashSet<>();
 		List<HydrationRecipeInstance<ENTITY, HC>> hydrationPlan = new ArrayList<>();
 
 		// first iteration - collect keys
 		for (ENTITY entity : entities) {
-			List<HydrationRecipeStep<ENTITY, HC>> steps = recipe.buildSteps(entity, ctx);
-			HydrationRecipeInstance<ENTITY, HC> hydrationPlanStep = new HydrationRecipeInstance(entity, steps);
+			List<HydrationRecipeStep<ENTITY, HC>> steps = maskSteps(recipe, recipe.buildSteps(entity, ctx), fieldMask);
+			HydrationRecipeInstance<ENTITY, HC> hydrationPlanStep = new HydrationRecipeInstance<>(entity, steps, metrics);
 			hydrationPlan.add(hydrationPlanStep);
-			fetchKeys(entity, ctx, hydrationPlanStep, keysToFetch);
+			fetchKeys(ctx, hydrationPlanStep, keysToFetch);
 		}
+		if (metrics != null) metrics.keyCollectionNanos = System.nanoTime() - start;
 
 		// ... and execute
-		executeHydration(hydrationPlan, ctx, keysToFetch);
+		return executeHydration(hydrationPlan, ctx, keysToFetch, cache, metrics != null ? Collections.singletonList(metrics) : null);
+	}
+
+	private <ENTITY extends CanBeHydrated<ENTITY, HC>, HC extends HydrationContext> PendingHydration startHydration(Iterable<ENTITY> entities, HC ctx, HydrationCache cache) {
+		// group the entities by recipe instance, mixed collections usually share only a few recipes
+		final Map<HydrationRecipe<ENTITY, HC>, List<ENTITY>> groups = new IdentityHashMap<>();
+		final List<HydrationRecipe<ENTITY, HC>> recipes = new ArrayList<>();
+		for (ENTITY entity : entities) {
+			final HydrationRecipe<ENTITY, HC> recipe = entity.getRecipe();
+			List<ENTITY> group = groups.get(recipe);
+			if (group == null) {
+				group = new ArrayList<>();
+				groups.put(recipe, group);
+				recipes.add(recipe);
+			}
+			group.add(entity);
+		}
+
+		final FieldMaskHydrationContext fieldMask = fieldMask(ctx);
+		final Set<Key<Object>> keysToFetch = new HashSet<>();
+		final List<HydrationRecipeInstance<ENTITY, HC>> hydrationPlan = new ArrayList<>();
+		// each recipe class is measured separately, metrics are neither allocated nor measured when nobody listens
+		final Map<Class<?>, HydrationMetrics> metrics = metricsListener != null ? new LinkedHashMap<>() : null;
+
+		// first iteration - collect keys of all groups, to fetch them in single batch
+		for (HydrationRecipe<ENTITY, HC> recipe : recipes) {
+			final long start = metrics != null ? System.nanoTime() : 0;
+			final HydrationMetrics recipeMetrics = metrics != null ? metrics.computeIfAbsent(recipe.getClass(), HydrationMetrics::new) : null;
+			final List<ENTITY> group = groups.get(recipe);
+			final List<HydrationRecipeStep<ENTITY, HC>> compiledSteps = maskSteps(recipe, recipe.compile(), fieldMask);
+			if (compiledSteps != null) {
+				final HydrationRecipeInstance<ENTITY, HC> instance = new HydrationRecipeInstance<>(group, compiledSteps, recipeMetrics);
+				hydrationPlan.add(instance);
+				fetchKeys(ctx, instance, keysToFetch);
+			} else {
+				for (ENTITY entity : group) {
+					final HydrationRecipeInstance<ENTITY, HC> instance = new HydrationRecipeInstance<>(entity, maskSteps(recipe, recipe.buildSteps(entity, ctx), fieldMask), recipeMetrics);
+					hydrationPlan.add(instance);
+					fetchKeys(ctx, instance, keysToFetch);
+				}
+			}
+			if (recipeMetrics != null) recipeMetrics.keyCollectionNanos += System.nanoTime() - start;
+		}
+
+		// ... and execute
+		return executeHydration(hydrationPlan, ctx, keysToFetch, cache, metrics != null ? metrics.values() : null);
 	}
 
 	/**
-	 * Each entity is CanBeHydrated and creates it's own recipe.
+	 * Collects the dependencies of the steps, and counts them (including duplicates) to the metrics of the instance.
 	 */
-	public <ENTITY extends CanBeHydrated<ENTITY, HC>, HC extends HydrationContext> void hydrateCollection(Iterable<ENTITY> entities, HC ctx) {
+	@SuppressWarnings("unchecked")
+	private <ENTITY, HC extends HydrationContext> void fetchKeys(HC ctx, HydrationRecipeInstance<ENTITY, HC> hydrationPlanStep, Set<Key<Object>> keysToFetch) {
+		final HydrationMetrics metrics = hydrationPlanStep.getMetrics();
+		if (metrics != null) metrics.entityCount += hydrationPlanStep.getEntities().size();
+		if (hydrationPlanStep.getSteps() == null) return;
+		int requested = 0;
+		for (ENTITY entity : hydrationPlanStep.getEntities()) {
+			for (HydrationRecipeStep<ENTITY, HC> step : hydrationPlanStep.getSteps()) {
+				Collection<Key<?>> deps = step.getDependencies(entity, ctx);
+				if (deps != null && !deps.isEmpty()) {
+					requested += deps.size();
+					for (Key<?> key : deps) {
+						keysToFetch.add((Key<Object>) key);
+					}
+				}
+			}
+		}
+		if (metrics != null) metrics.keysRequested += requested;
+	}
 
-		Set<Key<Object>> keysToFetch = new HashSet<>();
-		List<HydrationRecipeInstance<ENTITY, HC>> hydrationPlan = new ArrayList<>();
+	/**
+	 * @return the context if it restricts the requested fields, null otherwise
+	 */
+	private static FieldMaskHydrationContext fieldMask(HydrationContext ctx) {
+		if (!(ctx instanceof FieldMaskHydrationContext)) return null;
+		final FieldMaskHydrationContext fieldMask = (FieldMaskHydrationContext) ctx;
+		return fieldMask.getRequestedFields() != null ? fieldMask : null;
+	}
 
-		// first iteration - collect keys
+	/**
+	 * Removes the steps populating only fields which were not requested, or all of them, if the recipe
+	 * does not populate any requested field. Returns the same list when nothing is removed.
+	 */
+	private static <ENTITY, HC extends HydrationContext> List<HydrationRecipeStep<ENTITY, HC>> maskSteps(HydrationRecipe<ENTITY, HC> recipe, List<HydrationRecipeStep<ENTITY, HC>> steps, FieldMaskHydrationContext fieldMask) {
+		if (fieldMask == null || steps == null) return steps;
+		final Collection<String> recipeFields = recipe.getPopulatedFields();
+		if (recipeFields != null && !fieldMask.isAnyRequested(recipeFields)) return Collections.emptyList();
+
+		List<HydrationRecipeStep<ENTITY, HC>> masked = null;
+		for (int i = 0; i < steps.size(); i++) {
+			final HydrationRecipeStep<ENTITY, HC> step = steps.get(i);
+			final Collection<String> stepFields = step.getPopulatedFields();
+			if (stepFields != null && !fieldMask.isAnyRequested(stepFields)) {
+				if (masked == null) masked = new ArrayList<>(steps.subList(0, i));
+			} else if (masked != null) {
+				masked.add(step);
+			}
+		}
+		return masked != null ? masked : steps;
+	}
+
+	private static <ENTITY> List<ENTITY> toList(Iterable<ENTITY> entities) {
+		final List<ENTITY> list = entities instanceof Collection
+				? new ArrayList<>(((Collection<ENTITY>) entities).size())
+				: new ArrayList<>();
 		for (ENTITY entity : entities) {
-			HydrationRecipe<ENTITY, HC> recipe = entity.getRecipe();
-			List<HydrationRecipeStep<ENTITY, HC>> steps = recipe.buildSteps(entity, ctx);
-			HydrationRecipeInstance<ENTITY, HC> hydrationPlanStep = new HydrationRecipeInstance(entity, steps);
-			hydrationPlan.add(hydrationPlanStep);
-			fetchKeys(entity, ctx, hydrationPlanStep, keysToFetch);
+			list.add(entity);
 		}
+		return list;
+	}
 
-		// ... and execute
-		executeHydration(hydrationPlan, ctx, keysToFetch);
+	private static int capacityFor(int expectedSize) {
+		return Math.max(16, (int) (expectedSize / 0.75f) + 1);
 	}
 
-	private <ENTITY, HC extends HydrationContext> void fetchKeys(ENTITY entity, HC ctx, HydrationRecipeInstance<ENTITY, HC> hydrationPlanStep, Set<Key<Object>> keysToFetch) {
-		for (HydrationRecipeStep<ENTITY, HC> step : hydrationPlanStep.getSteps()) {
-			Collection<Key<?>> deps = step.getDependencies(entity, ctx);
-			if (deps != null && !deps.isEmpty()) {
+	/**
+	 * @param metrics metrics of all recipe classes of the hydration, null when they are not measured. Fetch figures
+	 *                (distinct and found keys, fetch time) belong to the batch shared by all of them.
+	 */
+	private <ENTITY, HC extends HydrationContext> PendingHydration executeHydration(final List<HydrationRecipeInstance<ENTITY, HC>> hydrationPlan, final HC ctx, final Set<Key<Object>> keysToFetch, final HydrationCache cache, final Collection<HydrationMetrics> metrics) {
+		final long fetchStart = metrics != null ? System.nanoTime() : 0;
+		// keys which do not exist are tracked only when somebody is interested
+		final Set<Key<Object>> missingKeys = cache != null || missingDependencyPolicy != MissingDependencyPolicy.IGNORE ? new HashSet<>() : null;
+		final Map<Key<Object>, Object> cached = cache != null ? new HashMap<>() : null;
+		final Set<Key<Object>> missing = cache != null ? cache.lookup(keysToFetch, cached, missingKeys) : keysToFetch;
+
+		// now let's fetch all we need! (the fetch is asynchronous, map blocks on first access)
+		final Map<Key<Object>, Object> fetched = ofyProvider.get().load().keys(missing);
+		final long issueNanos = metrics != null ? System.nanoTime() - fetchStart : 0;
+
+		return new PendingHydration(() -> {
+			final long resolveStart = metrics != null ? System.nanoTime() : 0;
+			final Map<Key<Object>, Object> fetchedMap = mergeFetched(cache, cached, missing, fetched, missingKeys);
+			// the keys are owned by this hydration, nested keys are added to them
+			final Map<Key<Object>, Object> allFetched = fetchNestedDependencies(hydrationPlan, ctx, keysToFetch, fetchedMap, cache, missingKeys);
+			if (metrics != null) {
+				final long fetchNanos = issueNanos + System.nanoTime() - resolveStart;
+				for (HydrationMetrics recipeMetrics : metrics) {
+					recipeMetrics.distinctKeys = keysToFetch.size();
+					recipeMetrics.keysFound = allFetched.size();
+					recipeMetrics.fetchNanos = fetchNanos;
+				}
+			}
+
+			final Map<Key<Object>, Object> entityMap = applyMissingDependencyPolicy(allFetched, missingKeys);
+			final Set<Key<Object>> skipIfMissing = missingDependencyPolicy == MissingDependencyPolicy.SKIP_STEP && missingKeys != null && !missingKeys.isEmpty() ? missingKeys : null;
+			final boolean parallel = parallelPool != null && countEntities(hydrationPlan) >= parallelThreshold;
+			if (metrics == null) {
+				executeSteps(hydrationPlan, ctx, entityMap, skipIfMissing, parallel);
+				return;
+			}
+
+			// the plan is ordered by recipes, so consecutive instances of single recipe class are measured together
+			for (int from = 0; from < hydrationPlan.size(); ) {
+				final HydrationMetrics recipeMetrics = hydrationPlan.get(from).getMetrics();
+				int to = from + 1;
+				while (to < hydrationPlan.size() && hydrationPlan.get(to).getMetrics() == recipeMetrics) to++;
+				final long stepsStart = System.nanoTime();
+				executeSteps(hydrationPlan.subList(from, to), ctx, entityMap, skipIfMissing, parallel);
+				recipeMetrics.stepNanos += System.nanoTime() - stepsStart;
+				from = to;
+			}
+			for (HydrationMetrics recipeMetrics : metrics) {
+				metricsListener.hydrated(recipeMetrics);
+			}
+		});
+	}
+
+	private void clearSession() {
+		ofyProvider.get().clear();
+	}
+
+	private HydrationCache getCache() {
+		return cacheProvider != null ? cacheProvider.get() : null;
+	}
+
+	/**
+	 * @param requested keys which were fetched
+	 * @param missingKeys set to collect keys which were not found to, null if they are not tracked
+	 */
+	private Map<Key<Object>, Object> mergeFetched(HydrationCache cache, Map<Key<Object>, Object> cached, Set<Key<Object>> requested, Map<Key<Object>, Object> fetched, Set<Key<Object>> missingKeys) {
+		if (missingKeys != null && fetched.size() < requested.size()) {
+			final List<Key<Object>> notFound = new ArrayList<>();
+			for (Key<Object> key : requested) {
+				if (!fetched.containsKey(key)) notFound.add(key);
+			}
+			missingKeys.addAll(notFound);
+			if (cache != null) cache.putMissing(notFound);
+		}
+		if (cache == null) return fetched;
+		cache.putAll(fetched);
+		if (cached.isEmpty()) return fetched;
+		cached.putAll(fetched);
+		return cached;
+	}
+
+	private Map<Key<Object>, Object> load(Set<Key<Object>> keys, HydrationCache cache, Set<Key<Object>> missingKeys) {
+		if (cache == null) return mergeFetched(null, null, keys, ofyProvider.get().load().keys(keys), missingKeys);
+
+		final Map<Key<Object>, Object> cached = new HashMap<>();
+		final Set<Key<Object>> missing = cache.lookup(keys, cached, missingKeys);
+		return mergeFetched(cache, cached, missing, ofyProvider.get().load().keys(missing), missingKeys);
+	}
+
+	private Map<Key<Object>, Object> applyMissingDependencyPolicy(Map<Key<Object>, Object> entityMap, Set<Key<Object>> missingKeys) {
+		if (missingKeys == null || missingKeys.isEmpty()) return entityMap;
+
+		switch (missingDependencyPolicy) {
+			case FAIL:
+				throw new MissingDependencyException(missingKeys);
+			case PLACEHOLDER:
+				if (placeholderFactory == null) return entityMap;
+				final Map<Key<Object>, Object> withPlaceholders = new HashMap<>(entityMap);
+				for (Key<Object> key : missingKeys) {
+					final Object placeholder = placeholderFactory.apply(key);
+					if (placeholder != null) withPlaceholders.put(key, placeholder);
+				}
+				return withPlaceholders;
+			default:
+				return entityMap;
+		}
+	}
+
+	/**
+	 * Executes the step, unless some of its dependencies are among the keys which do not exist.
+	 */
+	private static <ENTITY, HC extends HydrationContext> void executeStep(HydrationRecipeStep<ENTITY, HC> step, ENTITY entity, HC ctx, Map<Key<Object>, Object> entityMap, Set<Key<Object>> skipIfMissing) {
+		if (skipIfMissing != null) {
+			final Collection<Key<?>> deps = step.getDependencies(entity, ctx);
+			if (deps != null) {
 				for (Key<?> key : deps) {
-					keysToFetch.add((Key<Object>) key);
+					if (skipIfMissing.contains(key)) return;
 				}
 			}
 		}
+		step.executeStep(entity, ctx, entityMap);
 	}
 
-	private <ENTITY, HC extends HydrationContext> void executeHydration(List<HydrationRecipeInstance<ENTITY, HC>> hydrationPlan, HC ctx, Set<Key<Object>> keysToFetch) {
-		// now let's fetch all we need!
-		final Map<Key<Object>, Object> entityMap = ofyProvider.get().load().keys(keysToFetch);
+	/**
+	 * @param parallel whether the thread safe steps should be executed in the pool, decided for the whole hydration
+	 */
+	private <ENTITY, HC extends HydrationContext> void executeSteps(List<HydrationRecipeInstance<ENTITY, HC>> hydrationPlan, HC ctx, Map<Key<Object>, Object> entityMap, Set<Key<Object>> skipIfMissing, boolean parallel) {
+		if (parallel) {
+			executeStepsInParallel(hydrationPlan, ctx, entityMap, skipIfMissing);
+			return;
+		}
 
 		// second iteration - do your hydration you little steps!
 		for (HydrationRecipeInstance<ENTITY, HC> hydrationPlanStep : hydrationPlan) {
 			if (hydrationPlanStep.getSteps() != null) {
-				for (HydrationRecipeStep<ENTITY, HC> step : hydrationPlanStep.getSteps()) {
-					step.executeStep(hydrationPlanStep.getEntity(), ctx, entityMap);
+				for (ENTITY entity : hydrationPlanStep.getEntities()) {
+					for (HydrationRecipeStep<ENTITY, HC> step : hydrationPlanStep.getSteps()) {
+						executeStep(step, entity, ctx, entityMap, skipIfMissing);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Executes the steps in rounds, keeping the recipe order of the steps of every entity. Steps of a recipe are split
+	 * into segments of consecutive thread safe and other steps. In each round, a segment of other steps is executed
+	 * sequentially for all entities, and then the following segment of thread safe steps in the pool.
+	 * The map of fetched entities is not modified any more, so it can be read concurrently.
+	 * Pool tasks run with the App Engine environment of the calling thread, see {@link ParallelStepsTask}.
+	 */
+	private <ENTITY, HC extends HydrationContext> void executeStepsInParallel(List<HydrationRecipeInstance<ENTITY, HC>> hydrationPlan, HC ctx, Map<Key<Object>, Object> entityMap, Set<Key<Object>> skipIfMissing) {
+		final List<List<List<HydrationRecipeStep<ENTITY, HC>>>> segments = new ArrayList<>(hydrationPlan.size());
+		int segmentCount = 0;
+		for (HydrationRecipeInstance<ENTITY, HC> hydrationPlanStep : hydrationPlan) {
+			final List<List<HydrationRecipeStep<ENTITY, HC>>> instanceSegments = splitToSegments(hydrationPlanStep.getSteps());
+			segments.add(instanceSegments);
+			segmentCount = Math.max(segmentCount, instanceSegments.size());
+		}
+
+		for (int segment = 0; segment < segmentCount; segment += 2) {
+			final List<ENTITY> parallelEntities = new ArrayList<>();
+			final List<List<HydrationRecipeStep<ENTITY, HC>>> parallelSteps = new ArrayList<>();
+			for (int i = 0; i < hydrationPlan.size(); i++) {
+				final List<List<HydrationRecipeStep<ENTITY, HC>>> instanceSegments = segments.get(i);
+				if (segment >= instanceSegments.size()) continue;
+
+				final List<HydrationRecipeStep<ENTITY, HC>> sequential = instanceSegments.get(segment);
+				final List<HydrationRecipeStep<ENTITY, HC>> parallel = segment + 1 < instanceSegments.size() ? instanceSegments.get(segment + 1) : null;
+				for (ENTITY entity : hydrationPlan.get(i).getEntities()) {
+					for (HydrationRecipeStep<ENTITY, HC> step : sequential) {
+						executeStep(step, entity, ctx, entityMap, skipIfMissing);
+					}
+					if (parallel != null) {
+						parallelEntities.add(entity);
+						parallelSteps.add(parallel);
+					}
+				}
+			}
+			if (parallelEntities.isEmpty()) continue;
+
+			final int leafSize = Math.max(1, parallelEntities.size() / (parallelPool.getParallelism() * 4));
+			parallelPool.invoke(new ParallelStepsTask<>(parallelEntities, parallelSteps, ctx, entityMap, skipIfMissing, ApiProxy.getCurrentEnvironment(), 0, parallelEntities.size(), leafSize));
+		}
+	}
+
+	/**
+	 * @return alternating segments of steps which are not thread safe (even, possibly empty) and thread safe (odd)
+	 */
+	private static <ENTITY, HC extends HydrationContext> List<List<HydrationRecipeStep<ENTITY, HC>>> splitToSegments(List<HydrationRecipeStep<ENTITY, HC>> steps) {
+		if (steps == null || steps.isEmpty()) return Collections.emptyList();
+
+		final List<List<HydrationRecipeStep<ENTITY, HC>>> segments = new ArrayList<>();
+		List<HydrationRecipeStep<ENTITY, HC>> segment = new ArrayList<>();
+		boolean threadSafe = false;
+		for (HydrationRecipeStep<ENTITY, HC> step : steps) {
+			if (step instanceof ThreadSafeHydrationStep != threadSafe) {
+				segments.add(segment);
+				segment = new ArrayList<>();
+				threadSafe = !threadSafe;
+			}
+			segment.add(step);
+		}
+		segments.add(segment);
+		return segments;
+	}
+
+	private static <ENTITY, HC extends HydrationContext> int countEntities(List<HydrationRecipeInstance<ENTITY, HC>> hydrationPlan) {
+		int count = 0;
+		for (HydrationRecipeInstance<ENTITY, HC> hydrationPlanStep : hydrationPlan) {
+			count += hydrationPlanStep.getEntities().size();
+		}
+		return count;
+	}
+
+	/**
+	 * Fetches nested dependencies of all steps, level by level, each level in single batch.
+	 * Keys which had already been requested are never requested again, but the walk continues to the next
+	 * level even when the whole level was already known. Cycles are bounded by {@link #maxDepth}.
+	 *
+	 * @param requested keys requested so far, the nested keys are added to them
+	 */
+	@SuppressWarnings("unchecked")
+	private <ENTITY, HC extends HydrationContext> Map<Key<Object>, Object> fetchNestedDependencies(List<HydrationRecipeInstance<ENTITY, HC>> hydrationPlan, HC ctx, Set<Key<Object>> requested, Map<Key<Object>, Object> fetched, HydrationCache cache, Set<Key<Object>> missingKeys) {
+		if (maxDepth <= 0) return fetched;
+
+		Map<Key<Object>, Object> allFetched = fetched;
+		List<HydrationRecipeInstance<ENTITY, HC>> active = hydrationPlan;
+		for (int depth = 1; depth <= maxDepth && !active.isEmpty(); depth++) {
+			final Set<Key<Object>> levelKeys = new HashSet<>();
+			final List<HydrationRecipeInstance<ENTITY, HC>> stillActive = new ArrayList<>();
+			for (HydrationRecipeInstance<ENTITY, HC> instance : active) {
+				if (instance.getSteps() == null) continue;
+				for (ENTITY entity : instance.getEntities()) {
+					List<HydrationRecipeStep<ENTITY, HC>> nestedSteps = null;
+					for (HydrationRecipeStep<ENTITY, HC> step : instance.getSteps()) {
+						final Collection<Key<?>> deps = step.getNestedDependencies(entity, ctx, depth, allFetched);
+						if (deps == null || deps.isEmpty()) continue;
+						if (nestedSteps == null) nestedSteps = new ArrayList<>();
+						nestedSteps.add(step);
+						if (instance.getMetrics() != null) instance.getMetrics().keysRequested += deps.size();
+						for (Key<?> key : deps) {
+							levelKeys.add((Key<Object>) key);
+						}
+					}
+					if (nestedSteps != null) stillActive.add(new HydrationRecipeInstance<>(entity, nestedSteps, instance.getMetrics()));
+				}
+			}
+			if (levelKeys.isEmpty()) break;
+
+			levelKeys.removeAll(requested);
+			if (!levelKeys.isEmpty()) {
+				requested.addAll(levelKeys);
+
+				if (allFetched == fetched) allFetched = new HashMap<>(fetched);
+				allFetched.putAll(load(levelKeys, cache, missingKeys));
+			}
+			// even when all keys of this level are known, their own dependencies may not be
+			active = stillActive;
+		}
+		return allFetched;
+	}
+
+	/**
+	 * Maximal number of nested dependency levels fetched by the hydrator, 0 disables nested dependencies.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Provider of the request scoped cache of fetched entities, see {@link HydrationCacheProvider}.
+	 */
+	@Inject
+	public void setCacheProvider(Provider<HydrationCache> cacheProvider) {
+		this.cacheProvider = cacheProvider;
+	}
+
+	/**
+	 * Listener receiving metrics of every hydration, e.g. {@link Slf4jHydrationMetricsListener}
+	 * or {@link InMemoryHydrationMetricsListener}. No metrics are published when not set.
+	 */
+	public void setMetricsListener(HydrationMetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+
+	public HydrationMetricsListener getMetricsListener() {
+		return metricsListener;
+	}
+
+	/**
+	 * What to do when some of the dependencies do not exist, {@link MissingDependencyPolicy#IGNORE} by default.
+	 */
+	public void setMissingDependencyPolicy(MissingDependencyPolicy missingDependencyPolicy) {
+		if (missingDependencyPolicy == null) throw new IllegalArgumentException("Missing dependency policy cannot be null");
+		this.missingDependencyPolicy = missingDependencyPolicy;
+	}
+
+	public MissingDependencyPolicy getMissingDependencyPolicy() {
+		return missingDependencyPolicy;
+	}
+
+	/**
+	 * Creates placeholders of missing entities for {@link MissingDependencyPolicy#PLACEHOLDER} policy.
+	 * When it returns null, the entity stays missing.
+	 */
+	public void setPlaceholderFactory(Function<Key<Object>, Object> placeholderFactory) {
+		this.placeholderFactory = placeholderFactory;
+	}
+
+	/**
+	 * Pool used to execute {@link ThreadSafeHydrationStep}s in parallel, null (default) executes all steps
+	 * sequentially on the calling thread.
+	 *
+	 * Pool threads do not belong to any request. While they execute the steps, they get the App Engine environment
+	 * of the hydrating thread and their own Objectify context, so entities loaded by the steps do not end up
+	 * in the session of the request. The runtime must still allow the pool threads to call App Engine services.
+	 */
+	public void setParallelPool(ForkJoinPool parallelPool) {
+		this.parallelPool = parallelPool;
+	}
+
+	public ForkJoinPool getParallelPool() {
+		return parallelPool;
+	}
+
+	/**
+	 * Minimal number of hydrated entities for which the steps are executed in parallel, smaller
+	 * hydrations are not worth the fork.
+	 */
+	public void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * Executes thread safe steps of a range of entities, splitting it until it is small enough. The steps are executed
+	 * with the App Engine environment of the hydrating thread, inside their own Objectify context.
+	 */
+	private static class ParallelStepsTask<ENTITY, HC extends HydrationContext> extends RecursiveAction {
+
+		private final List<ENTITY> entities;
+		private final List<List<HydrationRecipeStep<ENTITY, HC>>> steps;
+		private final HC ctx;
+		private final Map<Key<Object>, Object> entityMap;
+		private final Set<Key<Object>> skipIfMissing;
+		private final ApiProxy.Environment environment;
+		private final int from;
+		private final int to;
+		private final int leafSize;
+
+		ParallelStepsTask(List<ENTITY> entities, List<List<HydrationRecipeStep<ENTITY, HC>>> steps, HC ctx, Map<Key<Object>, Object> entityMap, Set<Key<Object>> skipIfMissing, ApiProxy.Environment environment, int from, int to, int leafSize) {
+			this.entities = entities;
+			this.steps = steps;
+			this.ctx = ctx;
+			this.entityMap = entityMap;
+			this.skipIfMissing = skipIfMissing;
+			this.environment = environment;
+			this.from = from;
+			this.to = to;
+			this.leafSize = leafSize;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= leafSize) {
+				final ApiProxy.Environment previous = ApiProxy.getCurrentEnvironment();
+				if (environment != null) ApiProxy.setEnvironmentForCurrentThread(environment);
+				try (Closeable ignored = ObjectifyService.begin()) {
+					for (int i = from; i < to; i++) {
+						final ENTITY entity = entities.get(i);
+						for (HydrationRecipeStep<ENTITY, HC> step : steps.get(i)) {
+							executeStep(step, entity, ctx, entityMap, skipIfMissing);
+						}
+					}
+				} finally {
+					// the calling thread can execute some of the tasks too
+					if (previous != null) {
+						ApiProxy.setEnvironmentForCurrentThread(previous);
+					} else {
+						ApiProxy.clearEnvironmentForCurrentThread();
+					}
 				}
+				return;
 			}
+			final int middle = (from + to) >>> 1;
+			invokeAll(new ParallelStepsTask<>(entities, steps, ctx, entityMap, skipIfMissing, environment, from, middle, leafSize),
+					new ParallelStepsTask<>(entities, steps, ctx, entityMap, skipIfMissing, environment, middle, to, leafSize));
 		}
 	}
 
+	/**
+	 * Reads the source in chunks, the fetch of the next chunk is issued before the steps of the current one are executed.
+	 * Session of fetched entities is released after the steps of each chunk.
+	 */
+	private static class ChunkedHydrationIterator<ENTITY> implements Iterator<ENTITY> {
+
+		private final Iterator<ENTITY> source;
+		private final int chunkSize;
+		private final Function<List<ENTITY>, PendingHydration> hydration;
+		private final Runnable releaseChunk;
+
+		private List<ENTITY> current = Collections.emptyList();
+		private int position;
+		private HydratedChunk<ENTITY> prefetched;
+
+		ChunkedHydrationIterator(Iterator<ENTITY> source, int chunkSize, Function<List<ENTITY>, PendingHydration> hydration, Runnable releaseChunk) {
+			if (chunkSize <= 0) throw new IllegalArgumentException("Chunk size must be > 0, was " + chunkSize);
+			this.source = source;
+			this.chunkSize = chunkSize;
+			this.hydration = hydration;
+			this.releaseChunk = releaseChunk;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (position < current.size()) return true;
+
+			final HydratedChunk<ENTITY> chunk = prefetched != null ? prefetched : startChunk();
+			if (chunk == null) return false;
+			// issue the fetch of the next chunk, before executing steps of this one
+			prefetched = startChunk();
+			chunk.pending.now();
+			// the pending fetch of the next chunk keeps its own results, so the session can be dropped
+			releaseChunk.run();
+			current = chunk.entities;
+			position = 0;
+			return true;
+		}
+
+		@Override
+		public ENTITY next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			return current.get(position++);
+		}
+
+		private HydratedChunk<ENTITY> startChunk() {
+			final List<ENTITY> entities = new ArrayList<>(chunkSize);
+			while (entities.size() < chunkSize && source.hasNext()) {
+				entities.add(source.next());
+			}
+			if (entities.isEmpty()) return null;
+			return new HydratedChunk<>(entities, hydration.apply(entities));
+		}
+	}
+
+	private static class HydratedChunk<ENTITY> {
+		private final List<ENTITY> entities;
+		private final PendingHydration pending;
+
+		HydratedChunk(List<ENTITY> entities, PendingHydration pending) {
+			this.entities = entities;
+			this.pending = pending;
+		}
+	}
+
+	/**
+	 * Steps to execute on the entities. Either single entity with its own steps, or all entities of compiled recipe.
+	 */
 	private static class HydrationRecipeInstance<ENTITY, HC extends HydrationContext> {
 
-		private final ENTITY entity;
+		private final List<ENTITY> entities;
 		private final List<HydrationRecipeStep<ENTITY, HC>> steps;
+		private final HydrationMetrics metrics;
+
+		public HydrationRecipeInstance(ENTITY entity, List<HydrationRecipeStep<ENTITY, HC>> steps, HydrationMetrics metrics) {
+			this(Collections.singletonList(entity), steps, metrics);
+		}
 
-		public HydrationRecipeInstance(ENTITY entity, List<HydrationRecipeStep<ENTITY, HC>> steps) {
-			this.entity = entity;
+		public HydrationRecipeInstance(List<ENTITY> entities, List<HydrationRecipeStep<ENTITY, HC>> steps, HydrationMetrics metrics) {
+			this.entities = entities;
 			this.steps = steps;
+			this.metrics = metrics;
 		}
 
-		public ENTITY getEntity() {
-			return entity;
+		public List<ENTITY> getEntities() {
+			return entities;
 		}
 
 		public List<HydrationRecipeStep<ENTITY, HC>> getSteps() {
 			return steps;
 		}
+
+		/**
+		 * @return metrics of the recipe class of this instance, null when they are not measured
+		 */
+		public HydrationMetrics getMetrics() {
+			return metrics;
+		}
 	}
 
 }
@@ -0,0 +1,130 @@
+package io.fnx.backend.tools.hydration;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates hydration metrics per recipe class in memory, e.g. to be exposed by an admin endpoint.
+ */
+public class InMemoryHydrationMetricsListener implements HydrationMetricsListener {
+
+	private final ConcurrentMap<Class<?>, RecipeStats> stats = new ConcurrentHashMap<>();
+
+	@Override
+	public void hydrated(HydrationMetrics metrics) {
+		RecipeStats recipeStats = stats.get(metrics.getRecipeClass());
+		if (recipeStats == null) {
+			final RecipeStats created = new RecipeStats();
+			recipeStats = stats.putIfAbsent(metrics.getRecipeClass(), created);
+			if (recipeStats == null) recipeStats = created;
+		}
+		recipeStats.add(metrics);
+	}
+
+	/**
+	 * @return stats of given recipe class, or null if no hydration with that recipe was done yet
+	 */
+	public RecipeStats getStats(Class<?> recipeClass) {
+		return stats.get(recipeClass);
+	}
+
+	public Map<Class<?>, RecipeStats> getStats() {
+		return Collections.unmodifiableMap(stats);
+	}
+
+	public void reset() {
+		stats.clear();
+	}
+
+	/**
+	 * Totals of all hydrations done with single recipe class.
+	 */
+	public static class RecipeStats {
+
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder entities = new LongAdder();
+		private final LongAdder keysRequested = new LongAdder();
+		private final LongAdder distinctKeys = new LongAdder();
+		private final LongAdder keysFound = new LongAdder();
+		private final LongAdder keyCollectionNanos = new LongAdder();
+		private final LongAdder fetchNanos = new LongAdder();
+		private final LongAdder stepNanos = new LongAdder();
+		private final AtomicLong maxDistinctKeys = new AtomicLong();
+
+		void add(HydrationMetrics metrics) {
+			calls.increment();
+			entities.add(metrics.getEntityCount());
+			keysRequested.add(metrics.getKeysRequested());
+			distinctKeys.add(metrics.getDistinctKeys());
+			keysFound.add(metrics.getKeysFound());
+			keyCollectionNanos.add(metrics.getKeyCollectionNanos());
+			fetchNanos.add(metrics.getFetchNanos());
+			stepNanos.add(metrics.getStepNanos());
+			maxDistinctKeys.accumulateAndGet(metrics.getDistinctKeys(), Math::max);
+		}
+
+		public long getCalls() {
+			return calls.sum();
+		}
+
+		public long getEntities() {
+			return entities.sum();
+		}
+
+		public long getKeysRequested() {
+			return keysRequested.sum();
+		}
+
+		public long getDistinctKeys() {
+			return distinctKeys.sum();
+		}
+
+		public long getKeysFound() {
+			return keysFound.sum();
+		}
+
+		/**
+		 * @return the largest number of distinct keys fetched by single hydration
+		 */
+		public long getMaxDistinctKeys() {
+			return maxDistinctKeys.get();
+		}
+
+		public long getKeyCollectionNanos() {
+			return keyCollectionNanos.sum();
+		}
+
+		public long getFetchNanos() {
+			return fetchNanos.sum();
+		}
+
+		public long getStepNanos() {
+			return stepNanos.sum();
+		}
+
+		public double getAverageEntitiesPerCall() {
+			final long c = getCalls();
+			return c == 0 ? 0 : (double) getEntities() / c;
+		}
+
+		@Override
+		public String toString() {
+			return "RecipeStats{" +
+					"calls=" + getCalls() +
+					", entities=" + getEntities() +
+					", keysRequested=" + getKeysRequested() +
+					", distinctKeys=" + getDistinctKeys() +
+					", maxDistinctKeys=" + getMaxDistinctKeys() +
+					", keysFound=" + getKeysFound() +
+					", keyCollectionMillis=" + TimeUnit.NANOSECONDS.toMillis(getKeyCollectionNanos()) +
+					", fetchMillis=" + TimeUnit.NANOSECONDS.toMillis(getFetchNanos()) +
+					", stepMillis=" + TimeUnit.NANOSECONDS.toMillis(getStepNanos()) +
+					'}';
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package io.fnx.backend.tools.hydration;
+
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by the {@link Hydrator} with {@link MissingDependencyPolicy#FAIL} policy,
+ * when some of the requested dependencies do not exist.
+ */
+public class MissingDependencyException extends RuntimeException {
+
+	private final List<Key<?>> missingKeys;
+
+	public MissingDependencyException(Collection<? extends Key<?>> missingKeys) {
+		super("Missing hydration dependencies: " + missingKeys);
+		this.missingKeys = Collections.unmodifiableList(new ArrayList<>(missingKeys));
+	}
+
+	/**
+	 * @return keys of the entities which were requested by the steps, but do not exist
+	 */
+	public List<Key<?>> getMissingKeys() {
+		return missingKeys;
+	}
+}
@@ -0,0 +1,31 @@
+package io.fnx.backend.tools.hydration;
+
+/**
+ * What the {@link Hydrator} does when a dependency requested by a step does not exist
+ * (e.g. the author of an article was deleted).
+ *
+ * @see Hydrator#setMissingDependencyPolicy(MissingDependencyPolicy)
+ */
+public enum MissingDependencyPolicy {
+
+	/**
+	 * Steps are executed, missing entities are not present in the map of fetched entities.
+	 */
+	IGNORE,
+
+	/**
+	 * Steps whose dependencies (see {@link HydrationRecipeStep#getDependencies}) are missing
+	 * are not executed for the entity.
+	 */
+	SKIP_STEP,
+
+	/**
+	 * Hydration fails with {@link MissingDependencyException}, no step is executed.
+	 */
+	FAIL,
+
+	/**
+	 * Missing entities are replaced by placeholders, see {@link Hydrator#setPlaceholderFactory}.
+	 */
+	PLACEHOLDER
+}
@@ -0,0 +1,29 @@
+package io.fnx.backend.tools.hydration;
+
+/**
+ * Hydration whose dependencies are being fetched. Steps of the hydration are executed on the first call
+ * of {@link #now()}, which blocks until the fetch completes.
+ */
+public class PendingHydration {
+
+	private Runnable completion;
+
+	PendingHydration(Runnable completion) {
+		this.completion = completion;
+	}
+
+	/**
+	 * Waits for the fetched dependencies and executes all hydration steps. Subsequent calls do nothing.
+	 */
+	public synchronized void now() {
+		if (completion != null) {
+			final Runnable c = completion;
+			completion = null;
+			c.run();
+		}
+	}
+
+	public synchronized boolean isDone() {
+		return completion == null;
+	}
+}
@@ -12,6 +12,17 @@ import java.util.List;
  */
 public class SimpleHydrationRecipe<ENTITY, HC extends HydrationContext> implements HydrationRecipe<ENTITY, HC> {
 
+	private static final ClassValue<Boolean> OVERRIDES_BUILD_STEPS = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> recipeClass) {
+			try {
+				return recipeClass.getMethod("buildSteps", Object.class, HydrationContext.class).getDeclaringClass() != SimpleHydrationRecipe.class;
+			} catch (NoSuchMethodException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
 	private List<HydrationRecipeStep<ENTITY, HC>> recipeSteps;
 
 	public SimpleHydrationRecipe(List<HydrationRecipeStep<ENTITY, HC>> steps) {
@@ -27,4 +38,12 @@ public class SimpleHydrationRecipe<ENTITY, HC extends HydrationContext> implemen
 		return recipeSteps;
 	}
 
+	/**
+	 * Steps are shared by all entities, unless a subclass overrides {@link #buildSteps} (then they may differ).
+	 */
+	@Override
+	public List<HydrationRecipeStep<ENTITY, HC>> compile() {
+		return OVERRIDES_BUILD_STEPS.get(getClass()) ? null : recipeSteps;
+	}
+
 }
@@ -0,0 +1,37 @@
+package io.fnx.backend.tools.hydration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.lang.String.format;
+
+/**
+ * Logs metrics of every hydration on debug level. Hydrations which fetch more than given number
+ * of distinct keys are logged as warnings.
+ */
+public class Slf4jHydrationMetricsListener implements HydrationMetricsListener {
+
+	private Logger log = LoggerFactory.getLogger(Hydrator.class);
+
+	private final int warnDistinctKeys;
+
+	public Slf4jHydrationMetricsListener() {
+		this(1000);
+	}
+
+	/**
+	 * @param warnDistinctKeys number of distinct keys above which hydrations are logged as warnings
+	 */
+	public Slf4jHydrationMetricsListener(int warnDistinctKeys) {
+		this.warnDistinctKeys = warnDistinctKeys;
+	}
+
+	@Override
+	public void hydrated(HydrationMetrics metrics) {
+		if (metrics.getDistinctKeys() > warnDistinctKeys) {
+			log.warn(format("Hydration fetched %d distinct keys (limit %d): %s", metrics.getDistinctKeys(), warnDistinctKeys, metrics));
+		} else if (log.isDebugEnabled()) {
+			log.debug(format("Hydration: %s", metrics));
+		}
+	}
+}
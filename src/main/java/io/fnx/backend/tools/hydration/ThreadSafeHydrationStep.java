@@ -0,0 +1,16 @@
+package io.fnx.backend.tools.hydration;
+
+/**
+ * Marker of {@link HydrationRecipeStep}s whose {@link HydrationRecipeStep#executeStep} can be executed
+ * concurrently for different entities (e.g. CPU heavy rendering or URL signing, which changes only
+ * the hydrated entity).
+ *
+ * When parallel execution is enabled ({@link Hydrator#setParallelPool}), consecutive steps of this kind are
+ * executed in the fork-join pool. Other steps are still executed sequentially, and the steps of every entity
+ * are executed in the order of the recipe.
+ *
+ * The steps are executed by the pool threads with the App Engine environment of the hydrating request, but inside
+ * their own Objectify context, so entities they load are not cached in the session of the request.
+ */
+public interface ThreadSafeHydrationStep {
+}
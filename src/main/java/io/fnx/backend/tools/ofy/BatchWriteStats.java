@@ -0,0 +1,61 @@
+package io.fnx.backend.tools.ofy;
+
+/**
+ * Outcome of single {@link BatchWriter} operation.
+ */
+public class BatchWriteStats {
+
+    private final int itemCount;
+    private final int batchCount;
+    private final int retryCount;
+    private final long elapsedMillis;
+
+    public BatchWriteStats(int itemCount, int batchCount, int retryCount, long elapsedMillis) {
+        this.itemCount = itemCount;
+        this.batchCount = batchCount;
+        this.retryCount = retryCount;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return number of saved entities or deleted keys
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * @return number of batches (or transactions) the items were written in
+     */
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * @return number of batches which had to be retried because of contention
+     */
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return written items per second
+     */
+    public double getThroughput() {
+        return elapsedMillis == 0 ? itemCount : itemCount * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchWriteStats{" +
+                "itemCount=" + itemCount +
+                ", batchCount=" + batchCount +
+                ", retryCount=" + retryCount +
+                ", elapsedMillis=" + elapsedMillis +
+                '}';
+    }
+}
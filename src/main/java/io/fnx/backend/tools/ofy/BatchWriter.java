@@ -0,0 +1,311 @@
+package io.fnx.backend.tools.ofy;
+
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.Result;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import static java.lang.String.format;
+
+/**
+ * Saves or deletes large collections of entities (keys) in batches the datastore accepts.
+ * <p>
+ * Plain writes split the items to batches of {@link #setBatchSize(int)} items, which are issued asynchronously,
+ * at most {@link #setMaxPendingBatches(int)} at a time. Transactional writes group the items by their entity
+ * groups (root keys) and write at most {@link #setTransactionSize(int)} groups in single cross group transaction.
+ * <p>
+ * Batches failing because of contention are retried with exponential backoff, up to {@link #setMaxRetries(int)} times.
+ * Plain writes report contention (and other timeouts) as {@link DatastoreTimeoutException}, transactional
+ * writes as {@link ConcurrentModificationException}. Timed out write may have been applied anyway, so retried
+ * save of an entity without id can create a duplicate (the id is assigned only after successful save), assign
+ * the ids beforehand (<code>factory().allocateId()</code>) when that matters.
+ * <p>
+ * Must not be called inside Objectify transaction.
+ */
+public class BatchWriter {
+
+    /**
+     * Maximal number of entities in single datastore batch operation
+     */
+    public static final int MAX_BATCH_SIZE = 500;
+
+    /**
+     * Maximal number of entity groups in single cross group transaction
+     */
+    public static final int MAX_TRANSACTION_SIZE = 25;
+
+    private Logger log = LoggerFactory.getLogger(BatchWriter.class);
+
+    private final OfyProvider ofyProvider;
+
+    private int batchSize = MAX_BATCH_SIZE;
+    private int transactionSize = MAX_TRANSACTION_SIZE;
+    private int maxPendingBatches = 10;
+    private int maxRetries = 5;
+    private long initialBackoffMillis = 100;
+    private long maxBackoffMillis = 5000;
+
+    @Inject
+    public BatchWriter(OfyProvider ofyProvider) {
+        this.ofyProvider = ofyProvider;
+    }
+
+    /**
+     * Saves the entities in parallel batches, without transaction. Entities without id can be duplicated
+     * when their batch times out and is retried.
+     */
+    public <E> BatchWriteStats save(Collection<E> entities) {
+        return write("save", entities, batch -> ofy().save().entities(batch));
+    }
+
+    /**
+     * Deletes the keys in parallel batches, without transaction.
+     */
+    public <K extends Key<?>> BatchWriteStats delete(Collection<K> keys) {
+        return write("delete", keys, batch -> ofy().delete().keys(batch));
+    }
+
+    /**
+     * Saves the entities in cross group transactions, each with at most {@link #getTransactionSize()} entity groups.
+     * Every transaction succeeds or fails as a whole, but the operation as such is not atomic.
+     */
+    public <E> BatchWriteStats saveInTransactions(Collection<E> entities) {
+        return writeInTransactions("transactional save", entities, BatchWriter::entityGroupOf, batch -> ofy().save().entities(batch));
+    }
+
+    /**
+     * Deletes the keys in cross group transactions, each with at most {@link #getTransactionSize()} entity groups.
+     * Every transaction succeeds or fails as a whole, but the operation as such is not atomic.
+     */
+    public <K extends Key<?>> BatchWriteStats deleteInTransactions(Collection<K> keys) {
+        return writeInTransactions("transactional delete", keys, Key::getRoot, batch -> ofy().delete().keys(batch));
+    }
+
+    private <T> BatchWriteStats write(String operation, Collection<T> items, Function<List<T>, Result<?>> writer) {
+        assertNoTransaction();
+        final long started = System.currentTimeMillis();
+        final List<T> list = toList(items);
+
+        final int[] retries = new int[1];
+        final Deque<PendingBatch<T>> pending = new ArrayDeque<>();
+        int batches = 0;
+        for (int from = 0; from < list.size(); from += batchSize) {
+            if (pending.size() >= maxPendingBatches) complete(pending.poll(), writer, retries);
+            final List<T> batch = list.subList(from, Math.min(from + batchSize, list.size()));
+            pending.add(new PendingBatch<>(batch, writer.apply(batch)));
+            batches++;
+        }
+        while (!pending.isEmpty()) {
+            complete(pending.poll(), writer, retries);
+        }
+
+        return logged(operation, new BatchWriteStats(list.size(), batches, retries[0], System.currentTimeMillis() - started));
+    }
+
+    private <T> BatchWriteStats writeInTransactions(String operation, Collection<T> items,
+                                                    Function<T, Object> entityGroup, Function<List<T>, Result<?>> writer) {
+        assertNoTransaction();
+        final long started = System.currentTimeMillis();
+        final List<T> list = toList(items);
+
+        final int[] retries = new int[1];
+        final List<List<T>> batches = toTransactionBatches(list, entityGroup);
+        for (List<T> batch : batches) {
+            // single try, so the retries are done here with backoff
+            withRetries(() -> ofy().transactNew(1, () -> writer.apply(batch).now()), ConcurrentModificationException.class, retries, 0);
+        }
+
+        return logged(operation, new BatchWriteStats(list.size(), batches.size(), retries[0], System.currentTimeMillis() - started));
+    }
+
+    /**
+     * Packs whole entity groups to batches of at most {@link #transactionSize} groups and {@link #MAX_BATCH_SIZE}
+     * items, in the order in which the groups first appear. Only group larger than {@link #MAX_BATCH_SIZE} is split.
+     */
+    private <T> List<List<T>> toTransactionBatches(List<T> items, Function<T, Object> entityGroup) {
+        final Map<Object, List<T>> groups = new LinkedHashMap<>();
+        for (T item : items) {
+            Object group = entityGroup.apply(item);
+            // unknown group is counted as a new one, which can only make the batch smaller than necessary
+            if (group == null) group = new Object();
+            groups.computeIfAbsent(group, g -> new ArrayList<>()).add(item);
+        }
+
+        final List<List<T>> batches = new ArrayList<>();
+        List<T> batch = new ArrayList<>();
+        int batchGroups = 0;
+        for (List<T> group : groups.values()) {
+            if (batchGroups >= transactionSize || batch.size() + group.size() > MAX_BATCH_SIZE) {
+                if (!batch.isEmpty()) batches.add(batch);
+                batch = new ArrayList<>();
+                batchGroups = 0;
+            }
+            for (int from = 0; from < group.size(); from += MAX_BATCH_SIZE) {
+                if (from > 0) {
+                    batches.add(batch);
+                    batch = new ArrayList<>();
+                }
+                batch.addAll(group.subList(from, Math.min(from + MAX_BATCH_SIZE, group.size())));
+            }
+            batchGroups++;
+        }
+        if (!batch.isEmpty()) batches.add(batch);
+        return batches;
+    }
+
+    /**
+     * @return root key of the entity, or null when the entity has no id yet
+     */
+    private static Object entityGroupOf(Object entity) {
+        try {
+            return Key.create(entity).getRoot();
+        } catch (IllegalArgumentException e) {
+            // Objectify cannot create key of an entity with null id
+            return null;
+        }
+    }
+
+    private <T> void complete(PendingBatch<T> pending, Function<List<T>, Result<?>> writer, int[] retries) {
+        try {
+            pending.result.now();
+        } catch (DatastoreTimeoutException e) {
+            if (maxRetries <= 0) throw e;
+            // the asynchronous write was the first attempt already
+            withRetries(() -> writer.apply(pending.batch).now(), DatastoreTimeoutException.class, retries, 1);
+        }
+    }
+
+    /**
+     * Runs the write until it succeeds, fails with other than <code>retryOn</code> exception or
+     * {@link #maxRetries} are exhausted.
+     *
+     * @param failedAttempts number of attempts which already failed with <code>retryOn</code> exception
+     */
+    private void withRetries(Runnable write, Class<? extends RuntimeException> retryOn, int[] retries, int failedAttempts) {
+        for (int attempt = failedAttempts; ; attempt++) {
+            if (attempt > 0) {
+                retries[0]++;
+                backoff(attempt - 1);
+            }
+            try {
+                write.run();
+                return;
+            } catch (RuntimeException e) {
+                if (!retryOn.isInstance(e) || attempt >= maxRetries) throw e;
+            }
+        }
+    }
+
+    /**
+     * Sleeps exponentially longer with each retry, with random jitter so the contending writers do not collide again.
+     */
+    private void backoff(int retry) {
+        final long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(retry, 20));
+        try {
+            Thread.sleep(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry batch write", e);
+        }
+    }
+
+    private BatchWriteStats logged(String operation, BatchWriteStats stats) {
+        log.info(format("Batch %s: %s", operation, stats));
+        return stats;
+    }
+
+    private void assertNoTransaction() {
+        if (ofy().getTransaction() != null) throw new IllegalStateException("Batch writes must not be called inside transaction");
+    }
+
+    private static <T> List<T> toList(Collection<T> items) {
+        if (items == null) return new ArrayList<>(0);
+        return items instanceof List ? (List<T>) items : new ArrayList<>(items);
+    }
+
+    protected Objectify ofy() {
+        return ofyProvider.get();
+    }
+
+    /**
+     * @param batchSize number of items written in single non transactional batch, at most {@link #MAX_BATCH_SIZE}
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0 || batchSize > MAX_BATCH_SIZE) throw new IllegalArgumentException("Batch size must be between 1 and " + MAX_BATCH_SIZE + ", was " + batchSize);
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param transactionSize number of entity groups written in single transaction, at most {@link #MAX_TRANSACTION_SIZE}
+     */
+    public void setTransactionSize(int transactionSize) {
+        if (transactionSize <= 0 || transactionSize > MAX_TRANSACTION_SIZE) throw new IllegalArgumentException("Transaction size must be between 1 and " + MAX_TRANSACTION_SIZE + ", was " + transactionSize);
+        this.transactionSize = transactionSize;
+    }
+
+    public int getTransactionSize() {
+        return transactionSize;
+    }
+
+    /**
+     * @param maxPendingBatches number of asynchronous batches issued before waiting for the oldest one
+     */
+    public void setMaxPendingBatches(int maxPendingBatches) {
+        if (maxPendingBatches <= 0) throw new IllegalArgumentException("Max pending batches must be > 0, was " + maxPendingBatches);
+        this.maxPendingBatches = maxPendingBatches;
+    }
+
+    public int getMaxPendingBatches() {
+        return maxPendingBatches;
+    }
+
+    /**
+     * @param maxRetries number of retries of single batch failing because of contention (or timeout),
+     *                   so the batch is attempted at most <code>maxRetries + 1</code> times
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param initialBackoffMillis wait before the first retry, doubled with every next retry
+     * @param maxBackoffMillis maximal wait before retry
+     */
+    public void setBackoff(long initialBackoffMillis, long maxBackoffMillis) {
+        if (initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis) throw new IllegalArgumentException(format("Invalid backoff %d - %d ms", initialBackoffMillis, maxBackoffMillis));
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    private static class PendingBatch<T> {
+        private final List<T> batch;
+        private final Result<?> result;
+
+        PendingBatch(List<T> batch, Result<?> result) {
+            this.batch = batch;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package io.fnx.backend.tools.ofy;
+
+import com.googlecode.objectify.Key;
+
+/**
+ * Range of keys of single kind, scanned by {@link KeyRangeScanner}, with the position of the scan.
+ * Instances are immutable.
+ */
+public class KeyRange {
+
+    private final Key<?> start;
+    private final Key<?> end;
+    private final String cursor;
+    private final boolean finished;
+
+    /**
+     * @param start first key of the range (inclusive), null for the beginning of the kind
+     * @param end end of the range (exclusive), null for the end of the kind
+     */
+    public KeyRange(Key<?> start, Key<?> end) {
+        this(start, end, null, false);
+    }
+
+    public KeyRange(Key<?> start, Key<?> end, String cursor, boolean finished) {
+        this.start = start;
+        this.end = end;
+        this.cursor = cursor;
+        this.finished = finished;
+    }
+
+    public Key<?> getStart() {
+        return start;
+    }
+
+    public Key<?> getEnd() {
+        return end;
+    }
+
+    /**
+     * @return web safe cursor to continue the scan of the range from, null if the scan has not started
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    KeyRange withCursor(String cursor) {
+        return new KeyRange(start, end, cursor, false);
+    }
+
+    KeyRange asFinished() {
+        return new KeyRange(start, end, null, true);
+    }
+
+    @Override
+    public String toString() {
+        return "KeyRange{" +
+                "start=" + start +
+                ", end=" + end +
+                ", finished=" + finished +
+                '}';
+    }
+}
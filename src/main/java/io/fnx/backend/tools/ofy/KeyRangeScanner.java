@@ -0,0 +1,390 @@
+package io.fnx.backend.tools.ofy;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.cmd.Query;
+import com.googlecode.objectify.util.Closeable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+
+/**
+ * Scans whole kind in several key ranges concurrently, e.g. for maintenance of all entities of the kind.
+ * <p>
+ * The kind is split to ranges by sampling the <code>__scatter__</code> property. When no sample is available,
+ * the range between the smallest and the largest id is split evenly, and when even that is not possible
+ * (names, parents), the kind is scanned as single range.
+ * <p>
+ * Every range is paged through by its own thread, entities are handed over to the consumer through a bounded
+ * queue, so the scan never gets more than the queue size ahead of the consumer. The {@link #getCheckpoint()}
+ * contains only pages which were fully consumed, so resumed scan can deliver some entities twice, but never
+ * skips one.
+ * <p>
+ * Every range thread opens its own Objectify context, whose session is cleared after each page, so the scanned
+ * entities are not kept in memory once they are consumed.
+ * <p>
+ * The range threads are request threads of the request which started the scan by default, see
+ * {@link #setThreadFactory(ThreadFactory)}.
+ *
+ * @param <T> entity type
+ */
+public class KeyRangeScanner<T> {
+
+    private static final int SCATTER_OVERSAMPLING = 32;
+
+    private static final Logger log = LoggerFactory.getLogger(KeyRangeScanner.class);
+
+    private final OfyProvider ofyProvider;
+    private final Class<T> entityClass;
+    private final AtomicReferenceArray<KeyRange> ranges;
+
+    private ThreadFactory threadFactory;
+    private int pageSize = 500;
+    private int queueSize = 1000;
+
+    /**
+     * Scanner resuming given checkpoint
+     */
+    public KeyRangeScanner(OfyProvider ofyProvider, Class<T> entityClass, ScanCheckpoint checkpoint) {
+        this(ofyProvider, entityClass, checkpoint.getRanges());
+    }
+
+    private KeyRangeScanner(OfyProvider ofyProvider, Class<T> entityClass, List<KeyRange> ranges) {
+        if (ranges.isEmpty()) throw new IllegalArgumentException("At least one key range is required");
+        this.ofyProvider = ofyProvider;
+        this.entityClass = entityClass;
+        this.ranges = new AtomicReferenceArray<>(ranges.toArray(new KeyRange[ranges.size()]));
+    }
+
+    /**
+     * Creates scanner of whole kind, split to (at most) given number of key ranges
+     *
+     * @param splits requested number of ranges scanned concurrently
+     */
+    public static <T> KeyRangeScanner<T> split(OfyProvider ofyProvider, Class<T> entityClass, int splits) {
+        if (splits <= 0) throw new IllegalArgumentException("Number of splits must be > 0, was " + splits);
+        List<KeyRange> ranges = null;
+        if (splits > 1) {
+            ranges = splitByScatter(ofyProvider.get(), entityClass, splits);
+            if (ranges == null) ranges = splitByIdRange(ofyProvider.get(), entityClass, splits);
+        }
+        if (ranges == null) {
+            ranges = new ArrayList<>(1);
+            ranges.add(new KeyRange(null, null));
+        }
+        log.info(format("Kind %s split to %d key ranges", OfyUtils.kindOf(entityClass), ranges.size()));
+        return new KeyRangeScanner<>(ofyProvider, entityClass, ranges);
+    }
+
+    /**
+     * @return ranges split at evenly spaced keys of <code>__scatter__</code> sample, or null if there is no sample
+     */
+    static <T> List<KeyRange> splitByScatter(Objectify ofy, Class<T> entityClass, int splits) {
+        final List<Key<T>> sample;
+        try {
+            sample = new ArrayList<>(ofy.load().type(entityClass).order("__scatter__")
+                    .limit(splits * SCATTER_OVERSAMPLING).keys().list());
+        } catch (RuntimeException e) {
+            log.info(format("Scatter sampling of %s is not available: %s", OfyUtils.kindOf(entityClass), e.getMessage()));
+            return null;
+        }
+        if (sample.isEmpty()) return null;
+        sample.sort(Key::compareTo);
+
+        final List<Key<?>> splitKeys = new ArrayList<>(splits - 1);
+        for (int i = 1; i < splits; i++) {
+            final Key<T> splitKey = sample.get(i * sample.size() / splits);
+            if (splitKeys.isEmpty() || !splitKeys.get(splitKeys.size() - 1).equals(splitKey)) splitKeys.add(splitKey);
+        }
+        return toRanges(splitKeys);
+    }
+
+    /**
+     * @return ranges splitting the ids between the smallest and the largest key evenly, or null if
+     * the keys are not root keys with ids
+     */
+    static <T> List<KeyRange> splitByIdRange(Objectify ofy, Class<T> entityClass, int splits) {
+        final Key<T> min = ofy.load().type(entityClass).orderKey(false).limit(1).keys().first().now();
+        final Key<T> max = ofy.load().type(entityClass).orderKey(true).limit(1).keys().first().now();
+        if (min == null || max == null) return null;
+        if (min.getParent() != null || max.getParent() != null || min.getName() != null || max.getName() != null) return null;
+
+        final long step = (max.getId() - min.getId()) / splits;
+        if (step <= 0) return null;
+
+        final String kind = OfyUtils.kindOf(entityClass);
+        final List<Key<?>> splitKeys = new ArrayList<>(splits - 1);
+        for (int i = 1; i < splits; i++) {
+            splitKeys.add(Key.create(KeyFactory.createKey(kind, min.getId() + i * step)));
+        }
+        return toRanges(splitKeys);
+    }
+
+    private static List<KeyRange> toRanges(List<Key<?>> splitKeys) {
+        final List<KeyRange> ranges = new ArrayList<>(splitKeys.size() + 1);
+        Key<?> start = null;
+        for (Key<?> splitKey : splitKeys) {
+            ranges.add(new KeyRange(start, splitKey));
+            start = splitKey;
+        }
+        ranges.add(new KeyRange(start, null));
+        return ranges;
+    }
+
+    /**
+     * Starts the scan of the entities, the iterator should be closed if it is not consumed to the end.
+     */
+    public ScanIterator<T> iterator() {
+        return new ScanIterator<>(false);
+    }
+
+    /**
+     * Starts keys only scan, the iterator should be closed if it is not consumed to the end.
+     */
+    public ScanIterator<Key<T>> keysIterator() {
+        return new ScanIterator<>(true);
+    }
+
+    /**
+     * Scans all entities, calling the consumer on the calling thread.
+     */
+    public void forEach(Consumer<? super T> consumer) {
+        try (ScanIterator<T> it = iterator()) {
+            while (it.hasNext()) {
+                consumer.accept(it.next());
+            }
+        }
+    }
+
+    /**
+     * @return position of the scan, containing the entities which were already consumed
+     */
+    public ScanCheckpoint getCheckpoint() {
+        final List<KeyRange> snapshot = new ArrayList<>(ranges.length());
+        for (int i = 0; i < ranges.length(); i++) {
+            snapshot.add(ranges.get(i));
+        }
+        return new ScanCheckpoint(snapshot);
+    }
+
+    private Query<T> rangeQuery(Objectify ofy, KeyRange range) {
+        Query<T> query = ofy.load().type(entityClass);
+        if (range.getStart() != null) query = query.filterKey(">=", range.getStart());
+        if (range.getEnd() != null) query = query.filterKey("<", range.getEnd());
+        query = query.limit(pageSize).chunk(pageSize);
+        if (range.getCursor() != null) query = query.startAt(Cursor.fromWebSafeString(range.getCursor()));
+        return query;
+    }
+
+    /**
+     * Factory of the scanning threads, <code>ThreadManager.currentRequestThreadFactory()</code> of the request
+     * starting the scan by default. The threads have to be able to call the datastore, so e.g. threads of
+     * <code>Executors.defaultThreadFactory()</code> do not work on App Engine.
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * @param pageSize number of entities fetched by single query of a range, the checkpoint moves by whole pages
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize <= 0) throw new IllegalArgumentException("Page size must be > 0, was " + pageSize);
+        this.pageSize = pageSize;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @param queueSize maximal number of scanned entities waiting for the consumer
+     */
+    public void setQueueSize(int queueSize) {
+        if (queueSize <= 0) throw new IllegalArgumentException("Queue size must be > 0, was " + queueSize);
+        this.queueSize = queueSize;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Item handed over from range thread to the consumer. The last item of a page carries the position
+     * of the range after the page.
+     */
+    private static class ScanItem {
+        private final Object value;
+        private final boolean hasValue;
+        private final int rangeIndex;
+        private final KeyRange rangeAfter;
+        private final Throwable error;
+
+        ScanItem(Object value, boolean hasValue, int rangeIndex, KeyRange rangeAfter, Throwable error) {
+            this.value = value;
+            this.hasValue = hasValue;
+            this.rangeIndex = rangeIndex;
+            this.rangeAfter = rangeAfter;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Iterator of scanned entities (keys), backed by the range threads. Must be used by single thread.
+     */
+    public class ScanIterator<E> implements Iterator<E>, AutoCloseable {
+
+        private final BlockingQueue<ScanItem> queue = new ArrayBlockingQueue<>(queueSize);
+        private final List<Thread> threads = new ArrayList<>();
+        private final boolean keysOnly;
+        private volatile boolean closed;
+        private volatile RuntimeException failure;
+        private int activeRanges;
+        private ScanItem next;
+        private ScanItem consumed;
+
+        ScanIterator(boolean keysOnly) {
+            this.keysOnly = keysOnly;
+            final ThreadFactory factory = threadFactory != null ? threadFactory : ThreadManager.currentRequestThreadFactory();
+            try {
+                for (int i = 0; i < ranges.length(); i++) {
+                    if (ranges.get(i).isFinished()) continue;
+                    final int rangeIndex = i;
+                    final Thread thread = factory.newThread(() -> scanRange(rangeIndex));
+                    if (thread == null) throw new IllegalStateException("Thread factory did not create scanning thread");
+                    threads.add(thread);
+                    thread.start();
+                    activeRanges++;
+                }
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            // the consumer asks for another entity, so the previous one is done
+            if (consumed != null) {
+                advance(consumed);
+                consumed = null;
+            }
+            while (next == null) {
+                if (failure != null) throw failure;
+                if (activeRanges == 0 || closed) return false;
+                final ScanItem item;
+                try {
+                    item = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (item == null) continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new IllegalStateException("Interrupted while waiting for scanned entities", e);
+                }
+                if (item.error != null) {
+                    close();
+                    if (item.error instanceof Error) throw (Error) item.error;
+                    if (item.error instanceof RuntimeException) throw (RuntimeException) item.error;
+                    throw new IllegalStateException("Scan failed", item.error);
+                }
+                if (item.hasValue) {
+                    next = item;
+                } else {
+                    advance(item);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            consumed = next;
+            next = null;
+            return (E) consumed.value;
+        }
+
+        private void advance(ScanItem item) {
+            if (item.rangeAfter == null) return;
+            ranges.set(item.rangeIndex, item.rangeAfter);
+            if (item.rangeAfter.isFinished()) activeRanges--;
+        }
+
+        /**
+         * Stops the range threads, entities which were not consumed yet are discarded.
+         */
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            queue.clear();
+            // wakes up the threads waiting for the datastore or the consumer
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+
+        private void scanRange(int rangeIndex) {
+            try (Closeable ignored = ObjectifyService.begin()) {
+                final Objectify ofy = ofyProvider.get();
+                KeyRange range = ranges.get(rangeIndex);
+                while (!closed) {
+                    final Query<T> query = rangeQuery(ofy, range);
+                    final QueryResultIterator<?> it = keysOnly ? query.keys().iterator() : query.iterator();
+                    final List<Object> page = new ArrayList<>(pageSize);
+                    while (it.hasNext()) {
+                        page.add(it.next());
+                    }
+                    // the page is referenced only by the queue from now on
+                    ofy.clear();
+                    range = page.size() < pageSize ? range.asFinished() : range.withCursor(it.getCursor().toWebSafeString());
+
+                    if (page.isEmpty()) {
+                        put(new ScanItem(null, false, rangeIndex, range, null));
+                    }
+                    for (int i = 0; i < page.size(); i++) {
+                        put(new ScanItem(page.get(i), true, rangeIndex, i == page.size() - 1 ? range : null, null));
+                    }
+                    if (range.isFinished()) return;
+                }
+            } catch (Throwable e) {
+                // failure caused by closing the scan is not interesting, anything else must reach the consumer,
+                // otherwise it would wait for the range forever
+                if (closed) return;
+                log.warn(format("Scan of %s range %d failed", OfyUtils.kindOf(entityClass), rangeIndex), e);
+                put(new ScanItem(null, false, rangeIndex, null, e));
+            }
+        }
+
+        private void put(ScanItem item) {
+            try {
+                while (!closed && !queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                    // waiting for the consumer
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (closed) return;
+                failure = new IllegalStateException("Scanning thread was interrupted", e);
+                closed = true;
+            }
+        }
+    }
+}
@@ -1,20 +1,27 @@
 package io.fnx.backend.tools.ofy;
 
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.common.base.Function;
-import com.google.common.base.Predicates;
-import com.google.common.collect.FluentIterable;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Ref;
+import io.fnx.backend.tools.cache.ExpiringLruCache;
 import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoField;
+import java.time.temporal.IsoFields;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Useful function to call when you are dealing with Objectify.
@@ -22,6 +29,43 @@ import java.util.List;
  * @author Jiri Zuna (jiri@zunovi.cz)
  */
 public class OfyUtils {
+
+    /**
+     * Id returned by {@link #keysToIds(Collection)} for null keys and keys with names. Datastore never allocates it,
+     * so it cannot be mistaken for an id of an existing entity.
+     */
+    public static final long NO_ID = 0L;
+
+    /**
+     * Kinds of entity classes, resolving the kind from class annotations is not free. Unlike a static map,
+     * the class value does not keep the entity classes (and their class loaders) reachable.
+     */
+    private static final ClassValue<String> KINDS = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> entityClass) {
+            return Key.getKind(entityClass);
+        }
+    };
+
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+
+    /**
+     * Number of years before and after the current year, whose day indexes are cached
+     */
+    private static final int CACHED_YEARS_WINDOW = 10;
+
+    private static final ExpiringLruCache<Integer, String[]> YEAR_DAYS =
+            new ExpiringLruCache<>(2 * CACHED_YEARS_WINDOW + 1, TimeUnit.DAYS.toMillis(1));
+
+    private static final Function<Ref<Object>, Key<Object>> REF_TO_KEY = new Function<Ref<Object>, Key<Object>>() {
+        @Override
+        public Key<Object> apply(Ref<Object> ref) {
+            return refToKey(ref);
+        }
+    };
+
     /**
      * Null safe getter of the underlying id in given key
      * @param k key to get id for
@@ -69,7 +113,7 @@ public class OfyUtils {
      * @return all non null refs as keys
      */
     public static <T> List<Key<T>> refsToKeys(Collection<Ref<T>> refs) {
-        if (refs == null) return new ArrayList<>();
+        if (refs == null || refs.isEmpty()) return new ArrayList<>(0);
         final List<Key<T>> results = new ArrayList<>(refs.size());
         for (Ref<T> ref : refs) {
             if (ref != null) results.add(ref.getKey());
@@ -88,7 +132,7 @@ public class OfyUtils {
         if (id == null) {
             return null;
         } else {
-            return Key.create(entity, id);
+            return Key.create(KeyFactory.createKey(kindOf(entity), id));
         }
     }
 
@@ -103,7 +147,7 @@ public class OfyUtils {
         if (name == null) {
             return null;
         } else {
-            return Key.create(entity, name);
+            return Key.create(KeyFactory.createKey(kindOf(entity), name));
         }
     }
 
@@ -161,24 +205,60 @@ public class OfyUtils {
     }
 
     /**
-     * Loads all not null refs from given collection
-     * @param ref refs to load
+     * Loads all refs from given collection in single batch
+     * @param refs refs to load
      * @param <T> entity type
-     * @return list of hydrated entities instead of refs
+     * @return list of loaded entities in the order of given refs, null for null refs and entities which do not exist
      */
-    public static <T> List<T> loadRefs(Collection<Ref<T>> ref) {
-        if (ref == null) {
-            return Lists.newArrayList();
+    public static <T> List<T> loadRefs(Collection<Ref<T>> refs) {
+        if (refs == null) return new ArrayList<>();
+
+        final List<Key<T>> keys = new ArrayList<>(refs.size());
+        for (Ref<T> ref : refs) {
+            keys.add(refToKey(ref));
         }
+        return loadKeys(keys);
+    }
 
-        final ImmutableList<T> hydrated = FluentIterable.from(ref).transform(new Function<Ref<T>, T>() {
-            @Override
-            public T apply(final Ref<T> ref) {
-                return loadRef(ref);
-            }
-        }).toList();
+    /**
+     * Loads all keys from given collection in single batch
+     * @param keys keys to load
+     * @param <T> entity type
+     * @return list of loaded entities in the order of given keys, null for null keys and entities which do not exist
+     */
+    public static <T> List<T> loadKeys(Collection<Key<T>> keys) {
+        if (keys == null) return new ArrayList<>();
+        if (keys.isEmpty()) return new ArrayList<>(0);
+
+        final List<Key<T>> toLoad = new ArrayList<>(keys.size());
+        for (Key<T> key : keys) {
+            if (key != null) toLoad.add(key);
+        }
+        if (toLoad.isEmpty()) return new ArrayList<>(Collections.nCopies(keys.size(), (T) null));
+        final Map<Key<T>, T> loaded = ObjectifyService.ofy().load().keys(toLoad);
 
-        return Lists.newArrayList(hydrated);
+        final List<T> result = new ArrayList<>(keys.size());
+        for (Key<T> key : keys) {
+            result.add(key != null ? loaded.get(key) : null);
+        }
+        return result;
+    }
+
+    /**
+     * Loads entities with given ids in single batch
+     * @param entityClass the class of the entity
+     * @param ids entity ids
+     * @param <T> entity type
+     * @return list of loaded entities in the order of given ids, null for null ids and entities which do not exist
+     */
+    public static <T> List<T> loadIds(Class<T> entityClass, Collection<Long> ids) {
+        if (ids == null) return new ArrayList<>();
+
+        final List<Key<T>> keys = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            keys.add(idToKey(entityClass, id));
+        }
+        return loadKeys(keys);
     }
 
     /**
@@ -189,23 +269,87 @@ public class OfyUtils {
      * @return All not null ids converted to keys. Never null and no nulls inside the collection.
      */
     public static <T> List<Key<T>> idsToKeys(final Class<T> entityClass, Collection<Long> ids) {
-        if (ids == null) return Lists.newArrayList();
+        if (ids == null || ids.isEmpty()) return new ArrayList<>(0);
 
-        return FluentIterable.from(ids).filter(Predicates.notNull()).transform(new Function<Long, Key<T>>() {
-            @Override
-            public Key<T> apply(Long id) {
-                return idToKey(entityClass, id);
-            }
-        }).toList();
+        final String kind = kindOf(entityClass);
+        final List<Key<T>> keys = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            if (id != null) keys.add(Key.<T>create(KeyFactory.createKey(kind, id)));
+        }
+        return keys;
     }
 
+    /**
+     * Transforms given ids to keys of given entity
+     * @param entityClass the class of the entity
+     * @param ids entity ids
+     * @param <T> entity type
+     * @return array of keys, in the order of given ids
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Key<T>[] idsToKeys(final Class<T> entityClass, long[] ids) {
+        if (ids == null) return new Key[0];
+
+        final String kind = kindOf(entityClass);
+        final Key<T>[] keys = new Key[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            keys[i] = Key.create(KeyFactory.createKey(kind, ids[i]));
+        }
+        return keys;
+    }
+
+    /**
+     * Null safe getter of the underlying ids in given keys
+     * @param keys keys to get ids for
+     * @return array of ids, in the order of given keys. {@link #NO_ID} for null keys and keys with names.
+     */
+    public static long[] keysToIds(Collection<? extends Key<?>> keys) {
+        if (keys == null) return new long[0];
+
+        final long[] ids = new long[keys.size()];
+        int i = 0;
+        for (Key<?> key : keys) {
+            ids[i++] = key != null && key.getName() == null ? key.getId() : NO_ID;
+        }
+        return ids;
+    }
+
+    /**
+     * Kind of given entity class, resolved once per class
+     * @param entityClass the class of the entity
+     * @return datastore kind of the entity
+     */
+    public static String kindOf(Class<?> entityClass) {
+        return KINDS.get(entityClass);
+    }
+
+    @SuppressWarnings("unchecked")
     public static <T> Function<? super Ref<T>, Key<T>> refToKeyTransformer() {
-        return new Function<Ref<T>, Key<T>>() {
-            @Override
-            public Key<T> apply(Ref<T> ref) {
-                return refToKey(ref);
-            }
-        };
+        return (Function<? super Ref<T>, Key<T>>) (Function<?, ?>) REF_TO_KEY;
+    }
+
+    /**
+     * Creates scanner of all entities of given kind, split to key ranges scanned concurrently
+     * @param ofyProvider provider of Objectify, used also by the scanning threads
+     * @param entityClass the class of the entity
+     * @param splits requested number of key ranges
+     * @param <T> entity type
+     * @return scanner of the kind, see {@link KeyRangeScanner}
+     */
+    public static <T> KeyRangeScanner<T> scanKind(OfyProvider ofyProvider, Class<T> entityClass, int splits) {
+        return KeyRangeScanner.split(ofyProvider, entityClass, splits);
+    }
+
+    /**
+     * Resumes the scan of given kind from the checkpoint
+     * @param ofyProvider provider of Objectify, used also by the scanning threads
+     * @param entityClass the class of the entity
+     * @param checkpoint checkpoint of previous scan
+     * @param <T> entity type
+     * @return scanner continuing from the checkpoint
+     */
+    public static <T> KeyRangeScanner<T> resumeScan(OfyProvider ofyProvider, Class<T> entityClass, ScanCheckpoint checkpoint) {
+        return new KeyRangeScanner<>(ofyProvider, entityClass, checkpoint);
     }
 
     /**
@@ -229,16 +373,134 @@ public class OfyUtils {
      */
     public static List<String> indexPeriodDays(final DateTime start, final DateTime end) {
         if (start == null || end == null || start.isAfter(end)) return Lists.newArrayList();
-        final DateTimeFormatter formatter = DateTimeFormat.forPattern("yyyyMMdd");
-        final ArrayList<String> result = Lists.newArrayList();
-        final DateTime truncatedStart = start.withHourOfDay(0).withMinuteOfHour(0).withSecondOfMinute(0).withMillisOfSecond(0);
-        final DateTime truncatedEnd = end.withHourOfDay(0).withMinuteOfHour(0).withSecondOfMinute(0).withMillisOfSecond(0);
-        DateTime current = truncatedStart;
-        while (current.isBefore(truncatedEnd)) {
-            result.add(current.toString(formatter));
-            current = current.plusDays(1);
-        }
-        result.add(truncatedEnd.toString(formatter));
-        return result;
+        final long days = Math.max(0, toEpochDay(end) - toEpochDay(start)) + 1;
+        return indexPeriodDays(start, end, new ArrayList<>((int) Math.min(days, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Adds string formatted dates between given 2 dates to given collection, see {@link #indexPeriodDays(DateTime, DateTime)}.
+     * Strings of days of recent years are cached and interned, so indexes of many entities share them.
+     * @param start starting date to count index from
+     * @param end ending date to count index to
+     * @param target collection to add the index to
+     * @param <C> collection type
+     * @return given collection
+     */
+    public static <C extends Collection<String>> C indexPeriodDays(final DateTime start, final DateTime end, final C target) {
+        if (start == null || end == null || start.isAfter(end)) return target;
+        final long endDay = toEpochDay(end);
+        long day = toEpochDay(start);
+        while (day < endDay) {
+            final LocalDate date = LocalDate.ofEpochDay(day);
+            final String[] yearDays = yearDays(date.getYear());
+            if (yearDays == null) {
+                target.add(DAY_FORMATTER.format(date));
+                day++;
+                continue;
+            }
+            // add the rest of the year (up to the end) from the table
+            int dayOfYear = date.getDayOfYear() - 1;
+            final long yearEnd = Math.min(endDay, day + yearDays.length - dayOfYear);
+            while (day < yearEnd) {
+                target.add(yearDays[dayOfYear++]);
+                day++;
+            }
+        }
+        target.add(dayIndex(endDay));
+        return target;
+    }
+
+    /**
+     * Returns list consisting of ISO weeks between given 2 dates (including the weeks of both dates).
+     * The weeks are formatted as <code>yyyy'W'ww</code> (week based year and week of that year, e.g. <code>2017W09</code>).
+     * Returns empty index, if one of the dates is null or ending date is before starting date.
+     * @param start starting date to count index from
+     * @param end ending date to count index to
+     * @return week index for all weeks between given 2 dates
+     */
+    public static List<String> indexPeriodWeeks(final DateTime start, final DateTime end) {
+        return indexPeriodWeeks(start, end, new ArrayList<>());
+    }
+
+    /**
+     * Adds ISO weeks between given 2 dates to given collection, see {@link #indexPeriodWeeks(DateTime, DateTime)}.
+     * @param start starting date to count index from
+     * @param end ending date to count index to
+     * @param target collection to add the index to
+     * @param <C> collection type
+     * @return given collection
+     */
+    public static <C extends Collection<String>> C indexPeriodWeeks(final DateTime start, final DateTime end, final C target) {
+        if (start == null || end == null || start.isAfter(end)) return target;
+        final LocalDate endDate = LocalDate.ofEpochDay(toEpochDay(end));
+        LocalDate week = LocalDate.ofEpochDay(toEpochDay(start)).with(ChronoField.DAY_OF_WEEK, 1);
+        while (!week.isAfter(endDate)) {
+            final int weekOfYear = week.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR);
+            target.add(week.get(IsoFields.WEEK_BASED_YEAR) + (weekOfYear < 10 ? "W0" : "W") + weekOfYear);
+            week = week.plusWeeks(1);
+        }
+        return target;
+    }
+
+    /**
+     * Returns list consisting of months between given 2 dates (including the months of both dates).
+     * The months are formatted as <code>yyyyMM</code>.
+     * Returns empty index, if one of the dates is null or ending date is before starting date.
+     * @param start starting date to count index from
+     * @param end ending date to count index to
+     * @return month index for all months between given 2 dates
+     */
+    public static List<String> indexPeriodMonths(final DateTime start, final DateTime end) {
+        return indexPeriodMonths(start, end, new ArrayList<>());
+    }
+
+    /**
+     * Adds months between given 2 dates to given collection, see {@link #indexPeriodMonths(DateTime, DateTime)}.
+     * @param start starting date to count index from
+     * @param end ending date to count index to
+     * @param target collection to add the index to
+     * @param <C> collection type
+     * @return given collection
+     */
+    public static <C extends Collection<String>> C indexPeriodMonths(final DateTime start, final DateTime end, final C target) {
+        if (start == null || end == null || start.isAfter(end)) return target;
+        final YearMonth endMonth = YearMonth.of(end.getYear(), end.getMonthOfYear());
+        YearMonth month = YearMonth.of(start.getYear(), start.getMonthOfYear());
+        while (!month.isAfter(endMonth)) {
+            target.add(MONTH_FORMATTER.format(month));
+            month = month.plusMonths(1);
+        }
+        return target;
+    }
+
+    /**
+     * @return day of given date (in its time zone) counted from the epoch
+     */
+    private static long toEpochDay(final DateTime dateTime) {
+        return LocalDate.of(dateTime.getYear(), dateTime.getMonthOfYear(), dateTime.getDayOfMonth()).toEpochDay();
+    }
+
+    private static String dayIndex(final long epochDay) {
+        final LocalDate date = LocalDate.ofEpochDay(epochDay);
+        final String[] yearDays = yearDays(date.getYear());
+        return yearDays != null ? yearDays[date.getDayOfYear() - 1] : DAY_FORMATTER.format(date);
+    }
+
+    /**
+     * @return interned <code>yyyyMMdd</code> strings of all days of given year, null if the year is too far to be cached
+     */
+    private static String[] yearDays(final int year) {
+        if (Math.abs(year - LocalDate.now(ZoneOffset.UTC).getYear()) > CACHED_YEARS_WINDOW) return null;
+        String[] yearDays = YEAR_DAYS.get(year);
+        if (yearDays == null) {
+            LocalDate date = LocalDate.of(year, 1, 1);
+            yearDays = new String[date.lengthOfYear()];
+            for (int i = 0; i < yearDays.length; i++) {
+                yearDays[i] = DAY_FORMATTER.format(date).intern();
+                date = date.plusDays(1);
+            }
+            YEAR_DAYS.put(year, yearDays);
+        }
+        return yearDays;
     }
 }
@@ -0,0 +1,77 @@
+package io.fnx.backend.tools.ofy;
+
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Position of {@link KeyRangeScanner}, i.e. its key ranges with their cursors. Can be stored as a web safe
+ * string (e.g. in task queue payload) and the scan resumed later.
+ */
+public class ScanCheckpoint {
+
+    private static final String RANGE_SEPARATOR = ",";
+    private static final String FIELD_SEPARATOR = ":";
+    private static final String FINISHED = "F";
+
+    private final List<KeyRange> ranges;
+
+    public ScanCheckpoint(List<KeyRange> ranges) {
+        this.ranges = Collections.unmodifiableList(new ArrayList<>(ranges));
+    }
+
+    public List<KeyRange> getRanges() {
+        return ranges;
+    }
+
+    public boolean isFinished() {
+        for (KeyRange range : ranges) {
+            if (!range.isFinished()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return checkpoint serialized to a string with web safe characters only
+     */
+    public String toWebSafeString() {
+        final StringBuilder sb = new StringBuilder();
+        for (KeyRange range : ranges) {
+            if (sb.length() > 0) sb.append(RANGE_SEPARATOR);
+            sb.append(range.getStart() != null ? range.getStart().toWebSafeString() : "").append(FIELD_SEPARATOR)
+                    .append(range.getEnd() != null ? range.getEnd().toWebSafeString() : "").append(FIELD_SEPARATOR)
+                    .append(range.getCursor() != null ? range.getCursor() : "").append(FIELD_SEPARATOR)
+                    .append(range.isFinished() ? FINISHED : "");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param checkpoint string created by {@link #toWebSafeString()}
+     * @return parsed checkpoint
+     */
+    public static ScanCheckpoint fromWebSafeString(String checkpoint) {
+        if (checkpoint == null) throw new IllegalArgumentException("Checkpoint cannot be null");
+        final List<KeyRange> ranges = new ArrayList<>();
+        for (String range : checkpoint.split(RANGE_SEPARATOR)) {
+            final String[] fields = range.split(FIELD_SEPARATOR, -1);
+            if (fields.length != 4) throw new IllegalArgumentException("Invalid scan checkpoint: " + checkpoint);
+            ranges.add(new KeyRange(toKey(fields[0]), toKey(fields[1]),
+                    fields[2].isEmpty() ? null : fields[2], FINISHED.equals(fields[3])));
+        }
+        return new ScanCheckpoint(ranges);
+    }
+
+    private static Key<?> toKey(String webSafeKey) {
+        return webSafeKey.isEmpty() ? null : Key.create(webSafeKey);
+    }
+
+    @Override
+    public String toString() {
+        return "ScanCheckpoint{" +
+                "ranges=" + ranges +
+                '}';
+    }
+}
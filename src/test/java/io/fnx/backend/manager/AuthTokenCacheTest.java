@@ -0,0 +1,100 @@
+package io.fnx.backend.manager;
+
+import com.googlecode.objectify.ObjectifyService;
+import io.fnx.backend.domain.AuthTokenEntity;
+import io.fnx.backend.tools.ofy.LoadCountingOfyProvider;
+import io.fnx.backend.tools.ofy.LocalDatastoreTest;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AuthTokenCacheTest extends LocalDatastoreTest {
+
+    private final LoadCountingOfyProvider ofyProvider = new LoadCountingOfyProvider();
+    private AuthTokenManager<TestUser> manager;
+
+    @Before
+    public void setUp() {
+        ObjectifyService.register(TestUser.class);
+        ofy().save().entity(new TestUser(1L)).now();
+        manager = new AuthTokenManager<>();
+        manager.setOfyProvider(ofyProvider);
+        manager.setTokenValidDuration(Duration.standardHours(1));
+        manager.enableTokenCache(100, Duration.standardMinutes(5));
+    }
+
+    private void saveToken(String id, DateTime lastTouch) {
+        final AuthTokenEntity entity = new AuthTokenEntity();
+        entity.setId(id);
+        entity.setLastTouch(lastTouch);
+        entity.setOwner(new TestUser(1L).getPrincipalKey());
+        ofy().save().entity(entity).now();
+    }
+
+    @Test
+    public void testCachedTokenIsNotLoaded() {
+        saveToken("token", DateTime.now());
+
+        assertEquals(Long.valueOf(1), manager.useToken("token").getId());
+        assertEquals(Collections.singletonList(AuthTokenEntity.createKey("token")), ofyProvider.getLoadedKeys());
+
+        ofyProvider.reset();
+        assertEquals(Long.valueOf(1), manager.useToken("token").getId());
+        assertEquals(Long.valueOf(1), manager.useToken("token").getId());
+        assertTrue(ofyProvider.getBatches().isEmpty());
+        assertEquals(2, manager.getTokenCache().getHits());
+        assertEquals(1, manager.getTokenCache().getMisses());
+    }
+
+    @Test
+    public void testUnknownTokenIsNotCached() {
+        assertNull(manager.useToken("unknown"));
+        assertNull(manager.useToken("unknown"));
+        assertEquals(2, ofyProvider.getBatches().size());
+        assertEquals(0, manager.getTokenCache().size());
+    }
+
+    @Test
+    public void testDestroyedTokenIsNotServedFromCache() {
+        saveToken("token", DateTime.now());
+        assertEquals(Long.valueOf(1), manager.useToken("token").getId());
+
+        manager.destroyToken("token");
+        ofyProvider.reset();
+        assertNull(manager.useToken("token"));
+        assertEquals(Collections.singletonList(AuthTokenEntity.createKey("token")), ofyProvider.getLoadedKeys());
+    }
+
+    @Test
+    public void testSweptTokenIsNotServedFromCache() {
+        saveToken("token", DateTime.now().minusMinutes(30));
+        assertEquals(Long.valueOf(1), manager.useToken("token").getId());
+        assertEquals(1, manager.getTokenCache().size());
+
+        // the token expires for the sweep only, it is still valid for the manager afterwards
+        manager.setTokenValidDuration(Duration.standardMinutes(10));
+        assertEquals(1, manager.sweepExpiredTokens(null, 10, 1).getDeletedCount());
+        manager.setTokenValidDuration(Duration.standardHours(1));
+
+        assertEquals(0, manager.getTokenCache().size());
+        assertNull(manager.useToken("token"));
+    }
+
+    @Test
+    public void testDisabledCacheLoadsEveryTime() {
+        saveToken("token", DateTime.now());
+        manager.disableTokenCache();
+
+        manager.useToken("token");
+        manager.useToken("token");
+        assertEquals(2, ofyProvider.getBatches().size());
+        assertNull(manager.getTokenCache());
+    }
+}
@@ -0,0 +1,69 @@
+package io.fnx.backend.manager;
+
+import io.fnx.backend.domain.AuthTokenEntity;
+import io.fnx.backend.tools.ofy.LocalDatastoreTest;
+import io.fnx.backend.tools.ofy.OfyProvider;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AuthTokenSweepTest extends LocalDatastoreTest {
+
+    private AuthTokenManager<?> manager;
+
+    @Before
+    public void setUp() {
+        manager = new AuthTokenManager<>();
+        manager.setOfyProvider(new OfyProvider());
+    }
+
+    private void saveToken(String id, DateTime lastTouch) {
+        final AuthTokenEntity entity = new AuthTokenEntity();
+        entity.setId(id);
+        entity.setLastTouch(lastTouch);
+        ofy().save().entity(entity).now();
+    }
+
+    @Test
+    public void testSweepResumesFromCursor() {
+        for (int i = 0; i < 5; i++) {
+            saveToken("expired" + i, DateTime.now().minusDays(30));
+        }
+        saveToken("valid", DateTime.now());
+
+        final TokenSweepResult first = manager.sweepExpiredTokens(null, 2, 1);
+        assertEquals(2, first.getDeletedCount());
+        assertNotNull(first.getCursor());
+        assertFalse(first.isFinished());
+
+        final TokenSweepResult second = manager.sweepExpiredTokens(first.getCursor(), 2, 10);
+        assertEquals(3, second.getDeletedCount());
+        assertNull(second.getCursor());
+        assertTrue(second.isFinished());
+
+        ofy().clear();
+        assertNotNull(manager.getAuthToken("valid"));
+        assertNull(manager.getAuthToken("expired4"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testForeignCursorIsRejected() {
+        manager.sweepExpiredTokens("not-a-sweep-cursor", 2, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroBatchesAreRejected() {
+        manager.sweepExpiredTokens(null, 2, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroBatchSizeIsRejected() {
+        manager.sweepExpiredTokens(null, 0, 1);
+    }
+}
@@ -0,0 +1,38 @@
+package io.fnx.backend.manager;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import io.fnx.backend.tools.auth.Principal;
+import io.fnx.backend.tools.auth.PrincipalRole;
+
+import java.util.Collections;
+import java.util.List;
+
+@Entity
+public class TestUser implements Principal {
+
+    @Id
+    private Long id;
+
+    public TestUser() {
+    }
+
+    public TestUser(Long id) {
+        this.id = id;
+    }
+
+    @Override
+    public Key<TestUser> getPrincipalKey() {
+        return Key.create(TestUser.class, id);
+    }
+
+    @Override
+    public List<? extends PrincipalRole> getUserRoles() {
+        return Collections.emptyList();
+    }
+
+    public Long getId() {
+        return id;
+    }
+}
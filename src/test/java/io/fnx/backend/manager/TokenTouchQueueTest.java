@@ -0,0 +1,67 @@
+package io.fnx.backend.manager;
+
+import io.fnx.backend.domain.AuthTokenEntity;
+import io.fnx.backend.tools.ofy.LocalDatastoreTest;
+import io.fnx.backend.tools.ofy.OfyProvider;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TokenTouchQueueTest extends LocalDatastoreTest {
+
+    private AuthTokenManager<?> manager;
+    private TokenTouchQueue queue;
+
+    @Before
+    public void setUp() {
+        final OfyProvider ofyProvider = new OfyProvider();
+        queue = new TokenTouchQueue();
+        queue.setOfyProvider(ofyProvider);
+        manager = new AuthTokenManager<>();
+        manager.setOfyProvider(ofyProvider);
+        manager.setTouchQueue(queue);
+    }
+
+    private AuthTokenEntity saveToken(String id, DateTime lastTouch) {
+        final AuthTokenEntity entity = new AuthTokenEntity();
+        entity.setId(id);
+        entity.setLastTouch(lastTouch);
+        ofy().save().entity(entity).now();
+        return entity;
+    }
+
+    @Test
+    public void testTouchesAreCoalesced() {
+        final AuthTokenEntity entity = saveToken("token", DateTime.now().minusDays(2));
+        assertTrue(manager.touchToken(entity));
+        queue.touch(entity);
+        assertEquals(1, queue.getPendingCount());
+
+        assertEquals(1, queue.flush());
+        ofy().flush();
+        ofy().clear();
+        assertNotNull(manager.getAuthToken("token"));
+        assertEquals(0, queue.flush());
+    }
+
+    @Test
+    public void testDestroyedTokenIsNotWrittenBack() {
+        final AuthTokenEntity entity = saveToken("token", DateTime.now().minusDays(2));
+        assertTrue(manager.touchToken(entity));
+        assertEquals(1, queue.getPendingCount());
+
+        manager.destroyToken("token");
+        assertEquals(0, queue.getPendingCount());
+        // touch of the still referenced entity must not bring it back either
+        queue.touch(entity);
+        assertEquals(0, queue.flush());
+
+        ofy().clear();
+        assertNull(manager.getAuthToken("token"));
+    }
+}
@@ -0,0 +1,149 @@
+package io.fnx.backend.manager;
+
+import com.googlecode.objectify.Key;
+import io.fnx.backend.domain.AuthTokenEntity;
+import io.fnx.backend.tools.ofy.LoadCountingOfyProvider;
+import io.fnx.backend.tools.ofy.LocalDatastoreTest;
+import io.fnx.backend.tools.ofy.OfyProvider;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UniqueIndexManagerTest extends LocalDatastoreTest {
+
+    private enum UniqueProperty { email, phone, nickname }
+
+    private final Key<?> alice = AuthTokenEntity.createKey("alice");
+    private final Key<?> bob = AuthTokenEntity.createKey("bob");
+
+    private final LoadCountingOfyProvider ofyProvider = new LoadCountingOfyProvider();
+    private UniqueIndexManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new UniqueIndexManager();
+        manager.setOfyProvider(ofyProvider);
+    }
+
+    private static Map<UniqueProperty, String> values(String email, String phone, String nickname) {
+        final Map<UniqueProperty, String> values = new EnumMap<>(UniqueProperty.class);
+        if (email != null) values.put(UniqueProperty.email, email);
+        if (phone != null) values.put(UniqueProperty.phone, phone);
+        if (nickname != null) values.put(UniqueProperty.nickname, nickname);
+        return values;
+    }
+
+    @Test
+    public void testChangeMovesOwnership() {
+        ofy().transact(() -> manager.saveUniqueIndexOwner(UniqueProperty.email, "alice@example.com", alice));
+        ofy().transact(() -> manager.changeUniqueValue(UniqueProperty.email, "alice@example.com", "alice@example.org", alice));
+
+        assertNull(manager.getUniqueValueOwner(UniqueProperty.email, "alice@example.com"));
+        assertEquals(alice, manager.getUniqueValueOwner(UniqueProperty.email, "alice@example.org"));
+    }
+
+    @Test
+    public void testChangeOfForeignOldValueIsRejected() {
+        ofy().transact(() -> manager.saveUniqueIndexOwner(UniqueProperty.email, "alice@example.com", alice));
+        try {
+            ofy().transact(() -> manager.changeUniqueValue(UniqueProperty.email, "alice@example.com", "bob@example.com", bob));
+            fail("Bob must not release value owned by Alice");
+        } catch (UniqueViolationException e) {
+            assertEquals(alice, manager.getUniqueValueOwner(UniqueProperty.email, "alice@example.com"));
+            assertNull(manager.getUniqueValueOwner(UniqueProperty.email, "bob@example.com"));
+        }
+    }
+
+    @Test(expected = UniqueViolationException.class)
+    public void testChangeOfMissingOldValueIsRejected() {
+        ofy().transact(() -> manager.changeUniqueValue(UniqueProperty.email, "bob@example.com", "bob@example.org", bob));
+    }
+
+    @Test
+    public void testExpiredFilterIsNotTrusted() {
+        final UniqueIndexManager otherInstance = new UniqueIndexManager();
+        otherInstance.setOfyProvider(new OfyProvider());
+
+        manager.rebuildAvailabilityFilter(UniqueProperty.email, 100, 0.01);
+        ofy().transact(() -> otherInstance.saveUniqueIndexOwner(UniqueProperty.email, "bob@example.com", bob));
+        // claimed on other instance, so the fresh filter of this instance does not know it
+        assertTrue(manager.isAvailable(UniqueProperty.email, "bob@example.com").get("bob@example.com"));
+
+        manager.rebuildAvailabilityFilter(UniqueProperty.email, 100, 0.01, Duration.ZERO);
+        ofy().transact(() -> otherInstance.saveUniqueIndexOwner(UniqueProperty.email, "alice@example.com", alice));
+        assertFalse(manager.isAvailable(UniqueProperty.email, "alice@example.com").get("alice@example.com"));
+    }
+
+    @Test
+    public void testBatchSaveClaimsAllValuesInSingleLoad() {
+        ofy().transact(() -> manager.saveUniqueIndexOwners(values("alice@example.com", "+420123", "alice"), alice));
+
+        assertEquals(1, ofyProvider.getBatches().size());
+        assertEquals(3, ofyProvider.getLoadedKeys().size());
+        assertEquals(alice, manager.getUniqueValueOwner(UniqueProperty.email, "alice@example.com"));
+        assertEquals(alice, manager.getUniqueValueOwner(UniqueProperty.phone, "+420123"));
+        assertEquals(alice, manager.getUniqueValueOwner(UniqueProperty.nickname, "alice"));
+
+        // the owner can claim its values again
+        ofy().transact(() -> manager.saveUniqueIndexOwners(values("alice@example.com", null, "alice"), alice));
+    }
+
+    @Test
+    public void testBatchSaveReportsAllViolatedProperties() {
+        ofy().transact(() -> manager.saveUniqueIndexOwners(values("alice@example.com", "+420123", null), alice));
+        try {
+            ofy().transact(() -> manager.saveUniqueIndexOwners(values("alice@example.com", "+420123", "bob"), bob));
+            fail("Bob must not claim values owned by Alice");
+        } catch (UniqueViolationException e) {
+            assertEquals(Arrays.asList("email", "phone"), e.getViolatedProperties());
+        }
+        // nothing was claimed, not even the free value
+        assertNull(manager.getUniqueValueOwner(UniqueProperty.nickname, "bob"));
+        assertEquals(alice, manager.getUniqueValueOwner(UniqueProperty.email, "alice@example.com"));
+    }
+
+    @Test
+    public void testBatchSaveReportsPartialViolation() {
+        ofy().transact(() -> manager.saveUniqueIndexOwner(UniqueProperty.phone, "+420123", alice));
+        try {
+            ofy().transact(() -> manager.saveUniqueIndexOwners(values("bob@example.com", "+420123", "bob"), bob));
+            fail("Bob must not claim phone owned by Alice");
+        } catch (UniqueViolationException e) {
+            assertEquals(Arrays.asList("phone"), e.getViolatedProperties());
+        }
+        assertNull(manager.getUniqueValueOwner(UniqueProperty.email, "bob@example.com"));
+    }
+
+    @Test
+    public void testBatchDeleteReleasesAllValues() {
+        ofy().transact(() -> manager.saveUniqueIndexOwners(values("alice@example.com", "+420123", "alice"), alice));
+        ofy().transact(() -> manager.deleteUniqueIndexOwners(values("alice@example.com", "+420123", null)));
+
+        assertNull(manager.getUniqueValueOwner(UniqueProperty.email, "alice@example.com"));
+        assertNull(manager.getUniqueValueOwner(UniqueProperty.phone, "+420123"));
+        assertEquals(alice, manager.getUniqueValueOwner(UniqueProperty.nickname, "alice"));
+
+        ofy().transact(() -> manager.saveUniqueIndexOwners(values("alice@example.com", "+420123", null), bob));
+        assertEquals(bob, manager.getUniqueValueOwner(UniqueProperty.phone, "+420123"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBatchSaveRequiresTransaction() {
+        manager.saveUniqueIndexOwners(values("alice@example.com", null, null), alice);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBatchDeleteRequiresTransaction() {
+        manager.deleteUniqueIndexOwners(values("alice@example.com", null, null));
+    }
+}
@@ -0,0 +1,54 @@
+package io.fnx.backend.manager;
+
+import org.joda.time.Duration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UniqueValueBloomFilterTest {
+
+    private long time = 1000;
+
+    @Test
+    public void testTakenValuesAreAlwaysContained() {
+        UniqueValueBloomFilter filter = new UniqueValueBloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.put("user" + i + "@example.com");
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain("user" + i + "@example.com"));
+        }
+        assertEquals(1000, filter.getPositiveCount());
+    }
+
+    @Test
+    public void testFalsePositiveRateIsMeasured() {
+        UniqueValueBloomFilter filter = new UniqueValueBloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.put("taken" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("free" + i)) filter.recordLookup(false);
+        }
+        assertEquals(10000, filter.getNegativeCount() + filter.getFalsePositiveCount());
+        assertTrue("Measured rate " + filter.getFalsePositiveRate(), filter.getFalsePositiveRate() < 0.05);
+    }
+
+    @Test
+    public void testFilterExpires() {
+        UniqueValueBloomFilter filter = new UniqueValueBloomFilter(1000, 0.01, Duration.millis(100)) {
+            @Override
+            protected long now() {
+                return time;
+            }
+        };
+        assertFalse(filter.isExpired());
+        time += 99;
+        assertFalse(filter.isExpired());
+        time += 1;
+        assertTrue(filter.isExpired());
+        assertFalse(new UniqueValueBloomFilter(1000, 0.01).isExpired());
+    }
+}
@@ -0,0 +1,150 @@
+package io.fnx.backend.tools.authorization;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import io.fnx.backend.tools.ofy.LoadCountingOfyProvider;
+import io.fnx.backend.tools.ofy.LocalDatastoreTest;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AllowedForOwnerAuthorizationGuardTest extends LocalDatastoreTest {
+
+    interface Documents {
+
+        @AllowedForOwner
+        void merge(@IdHasOwner(TestDocument.class) Long target,
+                   @KeyHasOwner Key<TestDocument> source,
+                   @IdHasOwner(TestDocument.class) Collection<Long> attachments,
+                   @KeyHasOwner Collection<Key<TestDocument>> related);
+    }
+
+    private final LoadCountingOfyProvider ofyProvider = new LoadCountingOfyProvider();
+    private AllowedForOwnerAuthorizationGuard guard;
+
+    @Before
+    public void setUp() {
+        ObjectifyService.register(TestDocument.class);
+        guard = new AllowedForOwnerAuthorizationGuard();
+        guard.setOfyProvider(ofyProvider);
+        // documents 1 - 5 belong to the user 1, document 6 to the user 2
+        for (long id = 1; id <= 6; id++) {
+            ofy().save().entity(new TestDocument(id, Key.create(TestPrincipal.class, id <= 5 ? 1L : 2L))).now();
+        }
+        ofy().clear();
+    }
+
+    private static TestPrincipal user(long id) {
+        final TestPrincipal principal = new TestPrincipal();
+        principal.setId(id);
+        return principal;
+    }
+
+    private AuthorizationResult merge(TestPrincipal principal, Object... args) throws NoSuchMethodException {
+        final Method method = Documents.class.getMethod("merge", Long.class, Key.class, Collection.class, Collection.class);
+        return guard.guardInvocation(invocationOf(method, args), method.getAnnotation(AllowedForOwner.class), principal);
+    }
+
+    @Test
+    public void testOwnerIsAllowedAfterSingleBatchLoad() throws NoSuchMethodException {
+        final AuthorizationResult result = merge(user(1), 1L, TestDocument.createKey(2),
+                Arrays.asList(3L, 4L), Arrays.asList(TestDocument.createKey(5), TestDocument.createKey(1)));
+
+        assertTrue(result.success);
+        assertEquals(1, ofyProvider.getBatches().size());
+        // the document passed twice is loaded once
+        final List<Key<?>> loaded = ofyProvider.getLoadedKeys();
+        assertEquals(5, loaded.size());
+        assertEquals(new HashSet<>(Arrays.asList(TestDocument.createKey(1), TestDocument.createKey(2), TestDocument.createKey(3),
+                TestDocument.createKey(4), TestDocument.createKey(5))), new HashSet<>(loaded));
+    }
+
+    @Test
+    public void testForeignDocumentInCollectionIsDenied() throws NoSuchMethodException {
+        final AuthorizationResult result = merge(user(1), 1L, TestDocument.createKey(2), Arrays.asList(3L, 6L), null);
+
+        assertFalse(result.success);
+        assertEquals(1, ofyProvider.getBatches().size());
+        assertEquals(4, ofyProvider.getLoadedKeys().size());
+    }
+
+    @Test
+    public void testForeignKeyIsDenied() throws NoSuchMethodException {
+        assertFalse(merge(user(1), 1L, TestDocument.createKey(6), null, null).success);
+        assertTrue(merge(user(2), null, TestDocument.createKey(6), null, null).success);
+        assertFalse(merge(user(2), 1L, TestDocument.createKey(6), null, null).success);
+        assertEquals(3, ofyProvider.getBatches().size());
+    }
+
+    @Test
+    public void testMissingDocumentsAreAllowed() throws NoSuchMethodException {
+        assertTrue(merge(user(1), 1L, TestDocument.createKey(99), Arrays.asList(98L, null), null).success);
+        assertEquals(1, ofyProvider.getBatches().size());
+    }
+
+    @Test
+    public void testNoOwnedParametersLoadNothing() throws NoSuchMethodException {
+        assertTrue(merge(user(1), null, null, null, null).success);
+        assertTrue(ofyProvider.getBatches().isEmpty());
+    }
+
+    @Test
+    public void testAnonymousIsDenied() throws NoSuchMethodException {
+        assertFalse(merge(null, 1L, null, null, null).success);
+        assertTrue(ofyProvider.getBatches().isEmpty());
+    }
+
+    @Test
+    public void testKnownOwnersAreNotLoadedAgain() throws NoSuchMethodException {
+        guard.setOwnerKeyCache(new OwnerKeyCache());
+        assertTrue(merge(user(1), 1L, TestDocument.createKey(2), Arrays.asList(3L, 4L), null).success);
+        ofyProvider.reset();
+
+        assertTrue(merge(user(1), 1L, null, Arrays.asList(3L, 5L), null).success);
+        assertEquals(Arrays.asList(TestDocument.createKey(5)), ofyProvider.getLoadedKeys());
+
+        ofyProvider.reset();
+        assertFalse(merge(user(2), 1L, null, null, null).success);
+        assertTrue(ofyProvider.getBatches().isEmpty());
+    }
+
+    private static MethodInvocation invocationOf(Method method, Object[] args) {
+        return new MethodInvocation() {
+            @Override
+            public Method getMethod() {
+                return method;
+            }
+
+            @Override
+            public Object[] getArguments() {
+                return args;
+            }
+
+            @Override
+            public Object proceed() {
+                return null;
+            }
+
+            @Override
+            public Object getThis() {
+                return null;
+            }
+
+            @Override
+            public AccessibleObject getStaticPart() {
+                return method;
+            }
+        };
+    }
+}
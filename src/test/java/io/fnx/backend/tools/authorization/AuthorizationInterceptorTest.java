@@ -5,15 +5,27 @@ import com.google.inject.Injector;
 import com.google.inject.Module;
 import io.fnx.backend.tools.auth.PrincipalRole;
 import io.fnx.backend.tools.random.StringUtils;
+import org.aopalliance.intercept.MethodInvocation;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class AuthorizationInterceptorTest {
@@ -104,6 +116,119 @@ public class AuthorizationInterceptorTest {
         testCallInRoles(Collections.emptyList(), false, testResource::backendFrontendUsersAllowed);
     }
 
+    @Test
+    public void testRepeatedCallsReuseAuthorizationPlan() {
+        TestResource testResource = injector.getInstance(TestResource.class);
+        for (int i = 0; i < 3; i++) {
+            testCallInRole(TestPrincipalRole.ADMIN, true, testResource::adminAllowed);
+            testCallInRole(TestPrincipalRole.ANONYMOUS, false, testResource::adminAllowed);
+            testCallInRole(TestPrincipalRole.ANONYMOUS, false, testResource::notAnnotated);
+        }
+    }
+
+    @Test
+    public void testDeniedMessageContainsMethodAndRoles() {
+        TestResource testResource = injector.getInstance(TestResource.class);
+        TestPrincipal tester = new TestPrincipal();
+        tester.setRoles(Collections.singletonList(TestPrincipalRole.FRONTEND_USER));
+        tester.setId(1L);
+        testLoggedUser = tester;
+        try {
+            testResource.adminAllowed();
+            fail("The call should fail for " + TestPrincipalRole.FRONTEND_USER);
+        } catch (PermissionDeniedException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("adminAllowed"));
+            assertTrue(e.getMessage(), e.getMessage().contains(TestPrincipalRole.FRONTEND_USER.toString()));
+            assertEquals(e.getMessage(), e.getMessage().indexOf("roles: "), e.getMessage().lastIndexOf("roles: "));
+        }
+    }
+
+    @Test
+    public void testReplacedGuardsDiscardCompiledPlans() throws Throwable {
+        final TestPrincipal admin = new TestPrincipal();
+        admin.setRoles(Collections.singletonList(TestPrincipalRole.ADMIN));
+        final AuthorizationInterceptor interceptor = new AuthorizationInterceptor(() -> admin);
+        final MethodInvocation invocation = invocationOf(TestResource.class.getMethod("adminAllowed"));
+
+        try {
+            interceptor.invoke(invocation);
+            fail("The call should fail when there are no guards");
+        } catch (PermissionDeniedException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("No guard"));
+        }
+
+        interceptor.setGuards(new AuthorizationGuard[]{new AllowedForAdminsAuthorizationGuard()});
+        assertEquals("proceeded", interceptor.invoke(invocation));
+    }
+
+    private static MethodInvocation invocationOf(Method method) {
+        return new MethodInvocation() {
+            @Override
+            public Method getMethod() {
+                return method;
+            }
+
+            @Override
+            public Object[] getArguments() {
+                return new Object[0];
+            }
+
+            @Override
+            public Object proceed() {
+                return "proceeded";
+            }
+
+            @Override
+            public Object getThis() {
+                return null;
+            }
+
+            @Override
+            public AccessibleObject getStaticPart() {
+                return method;
+            }
+        };
+    }
+
+    @Test
+    public void testPlainMessageResult() {
+        final AuthorizationResult noMessage = new AuthorizationResult(false, null);
+        assertNull(noMessage.msg);
+        assertNull(noMessage.getMsg());
+
+        final AuthorizationResult failure = AuthorizationResult.failure("Denied");
+        assertEquals("Denied", failure.msg);
+        assertEquals("Denied", failure.getMsg());
+        assertEquals("Denied", failure.getMsg(new TestPrincipal()));
+    }
+
+    @Test
+    public void testFailuresAreReusedForAllPrincipals() throws NoSuchMethodException {
+        final AuthorizationFailures failures = new AuthorizationFailures(method -> "Denied " + method.getName(),
+                principal -> ", id: " + ((TestPrincipal) principal).getId());
+        final AuthorizationResult failure = failures.forMethod(TestResource.class.getMethod("adminAllowed"));
+        assertSame(failure, failures.forMethod(TestResource.class.getMethod("adminAllowed")));
+        assertEquals("Denied adminAllowed", failure.msg);
+
+        final TestPrincipal first = new TestPrincipal();
+        first.setId(1L);
+        final TestPrincipal second = new TestPrincipal();
+        second.setId(2L);
+        assertEquals("Denied adminAllowed, id: 1", failure.getMsg(first));
+        assertEquals("Denied adminAllowed, id: 2", failure.getMsg(second));
+    }
+
+    @Test
+    public void testLazyMessageSurvivesSerialization() throws IOException, ClassNotFoundException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new PermissionDeniedException(() -> "Denied lazily"));
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals("Denied lazily", ((PermissionDeniedException) in.readObject()).getMessage());
+        }
+    }
+
     protected void testCallInRole(TestPrincipalRole role, boolean expectedAuthResult, Runnable call) {
         testCallInRoles(Collections.singletonList(role), expectedAuthResult, call);
     }
@@ -0,0 +1,35 @@
+package io.fnx.backend.tools.authorization;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+@Entity
+public class TestDocument implements OwnedEntity<TestPrincipal> {
+
+    @Id
+    private Long id;
+
+    private Key<TestPrincipal> owner;
+
+    public TestDocument() {
+    }
+
+    public TestDocument(Long id, Key<TestPrincipal> owner) {
+        this.id = id;
+        this.owner = owner;
+    }
+
+    public static Key<TestDocument> createKey(long id) {
+        return Key.create(TestDocument.class, id);
+    }
+
+    @Override
+    public Key<TestPrincipal> getOwnerKey() {
+        return owner;
+    }
+
+    public Long getId() {
+        return id;
+    }
+}
@@ -1,6 +1,7 @@
 package io.fnx.backend.tools.authorization;
 
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Index;
 import io.fnx.backend.tools.auth.Principal;
@@ -9,6 +10,7 @@ import io.fnx.backend.tools.ofy.OfyUtils;
 
 import java.util.List;
 
+@Entity
 public class TestPrincipal implements Principal {
 
     @Id
@@ -0,0 +1,66 @@
+package io.fnx.backend.tools.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ExpiringLruCacheTest {
+
+    private long time = 1000;
+
+    private ExpiringLruCache<String, String> createCache(int maxSize, long ttl) {
+        return new ExpiringLruCache<String, String>(maxSize, ttl) {
+            @Override
+            protected long now() {
+                return time;
+            }
+        };
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        ExpiringLruCache<String, String> cache = createCache(10, 100);
+        cache.put("a", "A");
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        ExpiringLruCache<String, String> cache = createCache(2, 100);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.get("a");
+        cache.put("c", "C");
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("C", cache.get("c"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        ExpiringLruCache<String, String> cache = createCache(10, 100);
+        cache.put("a", "A");
+        time += 99;
+        assertEquals("A", cache.get("a"));
+        time += 1;
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testInvalidate() {
+        ExpiringLruCache<String, String> cache = createCache(10, 100);
+        cache.put("a", "A");
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        cache.put("a", "A");
+        cache.put("a", null);
+        assertNull(cache.get("a"));
+    }
+}
@@ -0,0 +1,152 @@
+package io.fnx.backend.tools.hydration;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import io.fnx.backend.tools.ofy.LoadCountingOfyProvider;
+import io.fnx.backend.tools.ofy.LocalDatastoreTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HydrationCacheTest extends LocalDatastoreTest {
+
+	private static final HydrationContext CTX = new HydrationContext() {};
+
+	private final HydrationCacheProvider cacheProvider = new HydrationCacheProvider();
+	private LoadCountingOfyProvider ofyProvider;
+	private Hydrator hydrator;
+
+	@Before
+	public void setUp() {
+		ObjectifyService.register(TestPerson.class);
+		ofyProvider = new LoadCountingOfyProvider();
+		hydrator = new Hydrator(ofyProvider);
+		hydrator.setCacheProvider(cacheProvider);
+	}
+
+	@After
+	public void tearDown() {
+		HydrationCacheProvider.end();
+	}
+
+	private static Key<TestPerson> person(long id, String name) {
+		ObjectifyService.ofy().save().entity(new TestPerson(id, name, null)).now();
+		return TestPerson.createKey(id);
+	}
+
+	private TestArticle hydrated(Key<TestPerson> author, Key<TestPerson> reviewer) {
+		final TestArticle article = new TestArticle(1, author, reviewer);
+		hydrator.hydrateEntity(article, new SimpleHydrationRecipe<>(new HydratorTest.AuthorStep(), new HydratorTest.ReviewerStep()), CTX);
+		return article;
+	}
+
+	@Test
+	public void testSecondHydrationInRequestDoesNotLoad() {
+		final Key<TestPerson> alice = person(1, "Alice");
+		final Key<TestPerson> bob = person(2, "Bob");
+		HydrationCacheProvider.begin();
+
+		final TestArticle first = hydrated(alice, bob);
+		assertEquals("Alice", first.getAuthorName());
+		assertEquals(1, ofyProvider.getBatches().size());
+		assertEquals(2, cacheProvider.get().size());
+
+		ofyProvider.reset();
+		final TestArticle second = hydrated(bob, alice);
+		assertEquals("Bob", second.getAuthorName());
+		assertEquals("Alice", second.getReviewerName());
+		assertTrue(ofyProvider.getBatches().isEmpty());
+		assertEquals(2, cacheProvider.get().getHits());
+	}
+
+	@Test
+	public void testSecondHydrationLoadsOnlyUncachedKeys() {
+		final Key<TestPerson> alice = person(1, "Alice");
+		final Key<TestPerson> bob = person(2, "Bob");
+		HydrationCacheProvider.begin();
+
+		hydrated(alice, null);
+		ofyProvider.reset();
+		final TestArticle second = hydrated(alice, bob);
+
+		assertEquals("Bob", second.getReviewerName());
+		assertEquals(Collections.singletonList(bob), ofyProvider.getLoadedKeys());
+	}
+
+	@Test
+	public void testMissingKeysAreNotLoadedAgain() {
+		final Key<TestPerson> alice = person(1, "Alice");
+		final Key<TestPerson> deleted = TestPerson.createKey(99);
+		HydrationCacheProvider.begin();
+
+		hydrated(alice, deleted);
+		assertTrue(cacheProvider.get().isMissing(deleted));
+		ofyProvider.reset();
+
+		final TestArticle second = hydrated(alice, deleted);
+		assertEquals("Alice", second.getAuthorName());
+		assertNull(second.getReviewerName());
+		assertTrue(ofyProvider.getBatches().isEmpty());
+	}
+
+	@Test
+	public void testNothingIsSharedOutsideOfRequest() {
+		final Key<TestPerson> alice = person(1, "Alice");
+
+		assertNotSame(cacheProvider.get(), cacheProvider.get());
+		hydrated(alice, null);
+		hydrated(alice, null);
+		assertEquals(2, ofyProvider.getBatches().size());
+	}
+
+	@Test
+	public void testFilterScopesCacheToRequest() throws Exception {
+		final Key<TestPerson> alice = person(1, "Alice");
+		final HydrationCacheFilter filter = new HydrationCacheFilter();
+		final List<HydrationCache> requestCaches = new ArrayList<>();
+
+		// two requests served by the same (pooled) thread
+		for (int request = 0; request < 2; request++) {
+			filter.doFilter(null, null, (req, res) -> {
+				final HydrationCache cache = cacheProvider.get();
+				assertSame(cache, cacheProvider.get());
+				requestCaches.add(cache);
+				hydrated(alice, null);
+				hydrated(alice, null);
+			});
+		}
+
+		assertNotSame(requestCaches.get(0), requestCaches.get(1));
+		// each request loaded the entity once, the second one did not see the cache of the first one
+		assertEquals(2, ofyProvider.getBatches().size());
+		assertEquals(1, requestCaches.get(1).getMisses());
+		// the scope ended with the request
+		assertEquals(0, cacheProvider.get().size());
+	}
+
+	@Test
+	public void testFilterEndsScopeWhenRequestFails() throws Exception {
+		final HydrationCacheFilter filter = new HydrationCacheFilter();
+		final List<HydrationCache> requestCaches = new ArrayList<>();
+		try {
+			filter.doFilter(null, null, (req, res) -> {
+				requestCaches.add(cacheProvider.get());
+				throw new IllegalStateException("test");
+			});
+		} catch (IllegalStateException e) {
+			assertEquals("test", e.getMessage());
+		}
+		assertEquals(1, requestCaches.size());
+		assertNotSame(requestCaches.get(0), cacheProvider.get());
+	}
+}
@@ -0,0 +1,573 @@
+package io.fnx.backend.tools.hydration;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import io.fnx.backend.tools.ofy.LoadCountingOfyProvider;
+import io.fnx.backend.tools.ofy.LocalDatastoreTest;
+import io.fnx.backend.tools.ofy.OfyProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HydratorTest extends LocalDatastoreTest {
+
+	private static final HydrationContext CTX = new HydrationContext() {};
+
+	private Hydrator hydrator;
+	private ForkJoinPool pool;
+
+	@Before
+	public void setUp() {
+		ObjectifyService.register(TestPerson.class);
+		hydrator = new Hydrator(new OfyProvider());
+	}
+
+	@After
+	public void tearDown() {
+		if (pool != null) pool.shutdown();
+	}
+
+	private static Key<TestPerson> person(long id, String name, Long mentorId) {
+		final TestPerson person = new TestPerson(id, name, mentorId != null ? TestPerson.createKey(mentorId) : null);
+		ObjectifyService.ofy().save().entity(person).now();
+		return TestPerson.createKey(id);
+	}
+
+	private static TestPerson fetched(Map<Key<Object>, Object> fetched, Key<?> key) {
+		return key != null ? (TestPerson) fetched.get(key) : null;
+	}
+
+	/**
+	 * Populates author name, and follows the chain of author's mentors through nested dependencies
+	 */
+	static class AuthorStep implements HydrationRecipeStep<TestArticle, HydrationContext> {
+
+		@Override
+		public Collection<Key<?>> getDependencies(TestArticle article, HydrationContext context) {
+			return Collections.singletonList(article.getAuthor());
+		}
+
+		@Override
+		public Collection<Key<?>> getNestedDependencies(TestArticle article, HydrationContext context, int depth, Map<Key<Object>, Object> fetchedEntities) {
+			TestPerson person = fetched(fetchedEntities, article.getAuthor());
+			for (int i = 1; i < depth && person != null; i++) {
+				person = fetched(fetchedEntities, person.getMentor());
+			}
+			return person != null && person.getMentor() != null ? Collections.singletonList(person.getMentor()) : null;
+		}
+
+		@Override
+		public void executeStep(TestArticle article, HydrationContext context, Map<Key<Object>, Object> allFetchedEntities) {
+			TestPerson person = fetched(allFetchedEntities, article.getAuthor());
+			if (person == null) return;
+			article.setAuthorName(person.getName());
+			while ((person = fetched(allFetchedEntities, person.getMentor())) != null) {
+				article.getMentors().add(person.getName());
+			}
+			synchronized (article) {
+				article.getLog().add("author");
+			}
+		}
+	}
+
+	static class ReviewerStep implements HydrationRecipeStep<TestArticle, HydrationContext> {
+
+		@Override
+		public Collection<Key<?>> getDependencies(TestArticle article, HydrationContext context) {
+			return article.getReviewer() != null ? Collections.singletonList(article.getReviewer()) : null;
+		}
+
+		@Override
+		public void executeStep(TestArticle article, HydrationContext context, Map<Key<Object>, Object> allFetchedEntities) {
+			final TestPerson reviewer = fetched(allFetchedEntities, article.getReviewer());
+			if (reviewer != null) article.setReviewerName(reviewer.getName());
+			synchronized (article) {
+				article.getLog().add("reviewer");
+			}
+		}
+	}
+
+	static class ThreadSafeReviewerStep extends ReviewerStep implements ThreadSafeHydrationStep {
+	}
+
+	/**
+	 * Loads the reviewer by itself, instead of declaring it as dependency
+	 */
+	static class LoadingReviewerStep implements HydrationRecipeStep<TestArticle, HydrationContext>, ThreadSafeHydrationStep {
+
+		@Override
+		public Collection<Key<?>> getDependencies(TestArticle article, HydrationContext context) {
+			return null;
+		}
+
+		@Override
+		public void executeStep(TestArticle article, HydrationContext context, Map<Key<Object>, Object> allFetchedEntities) {
+			article.setReviewerName(ObjectifyService.ofy().load().key(article.getReviewer()).now().getName());
+		}
+	}
+
+	@SafeVarargs
+	private static SimpleHydrationRecipe<TestArticle, HydrationContext> recipe(HydrationRecipeStep<TestArticle, HydrationContext>... steps) {
+		return new SimpleHydrationRecipe<>(steps);
+	}
+
+	private static List<TestArticle> articles(int count, Key<TestPerson> author, Key<TestPerson> reviewer) {
+		final List<TestArticle> articles = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			articles.add(new TestArticle(i, author, reviewer));
+		}
+		return articles;
+	}
+
+	@Test
+	public void testNestedDependencies() {
+		person(3, "Carol", null);
+		person(2, "Bob", 3L);
+		final Key<TestPerson> alice = person(1, "Alice", 2L);
+		ObjectifyService.ofy().clear();
+
+		final TestArticle article = new TestArticle(1, alice, null);
+		hydrator.hydrateEntity(article, recipe(new AuthorStep()), CTX);
+
+		assertEquals("Alice", article.getAuthorName());
+		assertEquals(Arrays.asList("Bob", "Carol"), article.getMentors());
+	}
+
+	@Test
+	public void testNestedWalkContinuesPastKnownLevel() {
+		// Bob (the mentor of Alice) is already fetched as the reviewer, but his mentor Carol is not
+		person(3, "Carol", null);
+		final Key<TestPerson> bob = person(2, "Bob", 3L);
+		final Key<TestPerson> alice = person(1, "Alice", 2L);
+		ObjectifyService.ofy().clear();
+
+		final TestArticle article = new TestArticle(1, alice, bob);
+		hydrator.hydrateEntity(article, recipe(new AuthorStep(), new ReviewerStep()), CTX);
+
+		assertEquals("Bob", article.getReviewerName());
+		assertEquals(Arrays.asList("Bob", "Carol"), article.getMentors());
+	}
+
+	@Test
+	public void testNestedDependenciesAreBoundedByMaxDepth() {
+		// cycle Alice -> Bob -> Alice
+		final Key<TestPerson> alice = person(1, "Alice", 2L);
+		person(2, "Bob", 1L);
+		ObjectifyService.ofy().clear();
+		hydrator.setMaxDepth(1);
+
+		final TestArticle article = new TestArticle(1, alice, null);
+		final AuthorStep step = new AuthorStep() {
+			@Override
+			public void executeStep(TestArticle article, HydrationContext context, Map<Key<Object>, Object> allFetchedEntities) {
+				final TestPerson mentor = fetched(allFetchedEntities, fetched(allFetchedEntities, article.getAuthor()).getMentor());
+				article.getMentors().add(mentor.getName());
+			}
+		};
+		hydrator.hydrateEntity(article, recipe(step), CTX);
+		assertEquals(Collections.singletonList("Bob"), article.getMentors());
+	}
+
+	@Test
+	public void testOverriddenBuildStepsAreNotCompiled() {
+		final Key<TestPerson> alice = person(1, "Alice", null);
+		final Key<TestPerson> bob = person(2, "Bob", null);
+		final List<TestArticle> articles = articles(4, alice, bob);
+
+		final HydrationRecipeStep<TestArticle, HydrationContext> reviewerStep = new ReviewerStep();
+		final SimpleHydrationRecipe<TestArticle, HydrationContext> recipe = new SimpleHydrationRecipe<TestArticle, HydrationContext>(new AuthorStep()) {
+			@Override
+			public List<HydrationRecipeStep<TestArticle, HydrationContext>> buildSteps(TestArticle article, HydrationContext ctx) {
+				return article.getNumber() % 2 == 0 ? super.buildSteps(article, ctx) : Collections.singletonList(reviewerStep);
+			}
+		};
+		assertNull(recipe.compile());
+		assertEquals(1, recipe(new AuthorStep()).compile().size());
+
+		hydrator.hydrateCollection(articles, recipe, CTX);
+		assertEquals("Alice", articles.get(0).getAuthorName());
+		assertNull(articles.get(0).getReviewerName());
+		assertNull(articles.get(1).getAuthorName());
+		assertEquals("Bob", articles.get(1).getReviewerName());
+	}
+
+	@Test
+	public void testAsyncHydrationExecutesStepsOnJoin() {
+		final Key<TestPerson> alice = person(1, "Alice", null);
+		final List<TestArticle> articles = articles(3, alice, null);
+
+		final PendingHydration pending = hydrator.hydrateCollectionAsync(articles, recipe(new AuthorStep()), CTX);
+		assertFalse(pending.isDone());
+		assertNull(articles.get(0).getAuthorName());
+
+		pending.now();
+		assertTrue(pending.isDone());
+		for (TestArticle article : articles) {
+			assertEquals("Alice", article.getAuthorName());
+		}
+		pending.now();
+		assertEquals(Collections.singletonList("author"), articles.get(0).getLog());
+	}
+
+	@Test
+	public void testChunkedHydration() {
+		final Key<TestPerson> alice = person(1, "Alice", null);
+		final Key<TestPerson> bob = person(2, "Bob", null);
+		final List<TestArticle> articles = articles(25, alice, bob);
+
+		final Iterator<TestArticle> it = hydrator.hydrateIterator(articles.iterator(), recipe(new AuthorStep(), new ReviewerStep()), CTX, 10);
+		int count = 0;
+		while (it.hasNext()) {
+			final TestArticle article = it.next();
+			assertEquals(count++, article.getNumber());
+			assertEquals("Alice", article.getAuthorName());
+			assertEquals("Bob", article.getReviewerName());
+			// session is released after each chunk, it does not grow with the stream
+			assertFalse(ObjectifyService.ofy().isLoaded(alice));
+		}
+		assertEquals(25, count);
+	}
+
+	@Test
+	public void testParallelHydration() {
+		final Key<TestPerson> alice = person(1, "Alice", null);
+		final Key<TestPerson> bob = person(2, "Bob", null);
+		final List<TestArticle> articles = articles(50, alice, bob);
+
+		pool = new ForkJoinPool(4);
+		hydrator.setParallelPool(pool);
+		hydrator.setParallelThreshold(10);
+		hydrator.hydrateCollection(articles, recipe(new AuthorStep(), new ThreadSafeReviewerStep()), CTX);
+
+		for (TestArticle article : articles) {
+			assertEquals("Alice", article.getAuthorName());
+			assertEquals("Bob", article.getReviewerName());
+			assertEquals(Arrays.asList("author", "reviewer"), article.getLog());
+		}
+	}
+
+	@Test
+	public void testParallelHydrationKeepsStepOrder() {
+		final Key<TestPerson> alice = person(1, "Alice", null);
+		final Key<TestPerson> bob = person(2, "Bob", null);
+		final List<TestArticle> articles = articles(50, alice, bob);
+
+		pool = new ForkJoinPool(4);
+		hydrator.setParallelPool(pool);
+		hydrator.setParallelThreshold(10);
+		hydrator.hydrateCollection(articles, recipe(new ThreadSafeReviewerStep(), new AuthorStep(), new ThreadSafeReviewerStep()), CTX);
+
+		for (TestArticle article : articles) {
+			assertEquals(Arrays.asList("reviewer", "author", "reviewer"), article.getLog());
+		}
+	}
+
+	@Test
+	public void testParallelStepsCanLoadEntities() {
+		final Key<TestPerson> alice = person(1, "Alice", null);
+		final Key<TestPerson> bob = person(2, "Bob", null);
+		final List<TestArticle> articles = articles(50, alice, bob);
+		ObjectifyService.ofy().clear();
+
+		pool = new ForkJoinPool(4);
+		hydrator.setParallelPool(pool);
+		hydrator.setParallelThreshold(10);
+		hydrator.hydrateCollection(articles, recipe(new AuthorStep(), new LoadingReviewerStep()), CTX);
+
+		for (TestArticle article : articles) {
+			assertEquals("Alice", article.getAuthorName());
+			assertEquals("Bob", article.getReviewerName());
+		}
+		// the pool tasks had their own sessions
+		assertFalse(ObjectifyService.ofy().isLoaded(bob));
+	}
+
+	static class ReviewerRecipe extends SimpleHydrationRecipe<TestArticle, HydrationContext> {
+
+		ReviewerRecipe() {
+			super(new ReviewerStep());
+		}
+	}
+
+	@Test
+	public void testMetricsAreRecordedPerRecipeClass() {
+		final Key<TestPerson> alice = person(1, "Alice", null);
+		final Key<TestPerson> bob = person(2, "Bob", null);
+		final SimpleHydrationRecipe<TestArticle, HydrationContext> authorRecipe = recipe(new AuthorStep());
+		final ReviewerRecipe reviewerRecipe = new ReviewerRecipe();
+		final List<TestArticle> articles = articles(5, alice, bob);
+		for (TestArticle article : articles) {
+			article.setRecipe(article.getNumber() < 3 ? authorRecipe : reviewerRecipe);
+		}
+
+		final InMemoryHydrationMetricsListener listener = new InMemoryHydrationMetricsListener();
+		hydrator.setMetricsListener(listener);
+		hydrator.hydrateCollection(articles, CTX);
+
+		final InMemoryHydrationMetricsListener.RecipeStats authorStats = listener.getStats(SimpleHydrationRecipe.class);
+		assertEquals(1, authorStats.getCalls());
+		assertEquals(3, authorStats.getEntities());
+		assertEquals(3, authorStats.getKeysRequested());
+		final InMemoryHydrationMetricsListener.RecipeStats reviewerStats = listener.getStats(ReviewerRecipe.class);
+		assertEquals(1, reviewerStats.getCalls());
+		assertEquals(2, reviewerStats.getEntities());
+		assertEquals(2, reviewerStats.getKeysRequested());
+		// the fetch is shared, both recipes report the same batch
+		assertEquals(2, authorStats.getDistinctKeys());
+		assertEquals(2, reviewerStats.getKeysFound());
+		assertNull(listener.getStats(HydrationRecipe.class));
+		assertEquals(2, listener.getStats().size());
+
+		assertEquals("Alice", articles.get(0).getAuthorName());
+		assertNull(articles.get(0).getReviewerName());
+		assertEquals("Bob", articles.get(4).getReviewerName());
+		assertNull(articles.get(4).getAuthorName());
+	}
+
+	/**
+	 * Hydrates an article whose reviewer was deleted
+	 */
+	private TestArticle hydratedWithDeletedReviewer(Hydrator hydrator) {
+		final Key<TestPerson> alice = person(1, "Alice", null);
+		final TestArticle article = new TestArticle(1, alice, TestPerson.createKey(99));
+		hydrator.hydrateEntity(article, recipe(new AuthorStep(), new ReviewerStep()), CTX);
+		return article;
+	}
+
+	@Test
+	public void testIgnoreMissingDependency() {
+		hydrator.setMissingDependencyPolicy(MissingDependencyPolicy.IGNORE);
+		final TestArticle article = hydratedWithDeletedReviewer(hydrator);
+
+		assertEquals("Alice", article.getAuthorName());
+		assertNull(article.getReviewerName());
+		assertEquals(Arrays.asList("author", "reviewer"), article.getLog());
+	}
+
+	@Test
+	public void testSkipStepWithMissingDependency() {
+		hydrator.setMissingDependencyPolicy(MissingDependencyPolicy.SKIP_STEP);
+		final TestArticle article = hydratedWithDeletedReviewer(hydrator);
+
+		assertEquals("Alice", article.getAuthorName());
+		assertEquals(Collections.singletonList("author"), article.getLog());
+	}
+
+	@Test
+	public void testFailOnMissingDependency() {
+		hydrator.setMissingDependencyPolicy(MissingDependencyPolicy.FAIL);
+		final TestArticle article = new TestArticle(1, person(1, "Alice", null), TestPerson.createKey(99));
+		try {
+			hydrator.hydrateEntity(article, recipe(new AuthorStep(), new ReviewerStep()), CTX);
+			fail("Missing reviewer should fail the hydration");
+		} catch (MissingDependencyException e) {
+			assertEquals(Collections.singletonList(TestPerson.createKey(99)), e.getMissingKeys());
+		}
+		assertNull(article.getAuthorName());
+		assertTrue(article.getLog().isEmpty());
+	}
+
+	@Test
+	public void testPlaceholderForMissingDependency() {
+		hydrator.setMissingDependencyPolicy(MissingDependencyPolicy.PLACEHOLDER);
+		hydrator.setPlaceholderFactory(key -> new TestPerson(key.getId(), "Unknown " + key.getId(), null));
+		final TestArticle article = hydratedWithDeletedReviewer(hydrator);
+
+		assertEquals("Alice", article.getAuthorName());
+		assertEquals("Unknown 99", article.getReviewerName());
+	}
+
+	@Test
+	public void testPoliciesApplyToKeysCachedAsMissing() {
+		final LoadCountingOfyProvider ofyProvider = new LoadCountingOfyProvider();
+		final Hydrator cachingHydrator = new Hydrator(ofyProvider);
+		cachingHydrator.setCacheProvider(new HydrationCacheProvider());
+		cachingHydrator.setMissingDependencyPolicy(MissingDependencyPolicy.SKIP_STEP);
+		HydrationCacheProvider.begin();
+		try {
+			hydratedWithDeletedReviewer(cachingHydrator);
+			ofyProvider.reset();
+
+			// the deleted reviewer is known from the cache now, it is neither loaded nor passed to the step
+			final TestArticle article = hydratedWithDeletedReviewer(cachingHydrator);
+			assertTrue(ofyProvider.getBatches().isEmpty());
+			assertEquals(Collections.singletonList("author"), article.getLog());
+
+			cachingHydrator.setMissingDependencyPolicy(MissingDependencyPolicy.FAIL);
+			try {
+				hydratedWithDeletedReviewer(cachingHydrator);
+				fail("Reviewer cached as missing should fail the hydration");
+			} catch (MissingDependencyException e) {
+				assertEquals(Collections.singletonList(TestPerson.createKey(99)), e.getMissingKeys());
+			}
+			assertTrue(ofyProvider.getBatches().isEmpty());
+		} finally {
+			HydrationCacheProvider.end();
+		}
+	}
+
+	/**
+	 * Counts how many times the hydrator compiled it
+	 */
+	static class CountingRecipe extends SimpleHydrationRecipe<TestArticle, HydrationContext> {
+
+		private int compiled;
+
+		@SafeVarargs
+		CountingRecipe(HydrationRecipeStep<TestArticle, HydrationContext>... steps) {
+			super(steps);
+		}
+
+		@Override
+		public List<HydrationRecipeStep<TestArticle, HydrationContext>> compile() {
+			compiled++;
+			return super.compile();
+		}
+	}
+
+	@Test
+	public void testEntitiesAreGroupedByRecipeInstance() {
+		final Key<TestPerson> alice = person(1, "Alice", null);
+		final Key<TestPerson> bob = person(2, "Bob", null);
+		ObjectifyService.ofy().clear();
+		final LoadCountingOfyProvider ofyProvider = new LoadCountingOfyProvider();
+		final Hydrator countingHydrator = new Hydrator(ofyProvider);
+
+		// two instances of the same recipe class, entities of both interleaved
+		final CountingRecipe authorRecipe = new CountingRecipe(new AuthorStep());
+		final CountingRecipe reviewerRecipe = new CountingRecipe(new ReviewerStep());
+		final List<TestArticle> articles = articles(6, alice, bob);
+		for (TestArticle article : articles) {
+			article.setRecipe(article.getNumber() % 2 == 0 ? authorRecipe : reviewerRecipe);
+		}
+		final List<TestArticle> original = new ArrayList<>(articles);
+
+		countingHydrator.hydrateCollection(articles, CTX);
+
+		assertEquals(1, authorRecipe.compiled);
+		assertEquals(1, reviewerRecipe.compiled);
+		assertEquals(1, ofyProvider.getBatches().size());
+		assertEquals(original, articles);
+		for (int i = 0; i < articles.size(); i++) {
+			final TestArticle article = articles.get(i);
+			assertEquals(i, article.getNumber());
+			if (i % 2 == 0) {
+				assertEquals("Alice", article.getAuthorName());
+				assertNull(article.getReviewerName());
+				assertEquals(Collections.singletonList("author"), article.getLog());
+			} else {
+				assertEquals("Bob", article.getReviewerName());
+				assertNull(article.getAuthorName());
+				assertEquals(Collections.singletonList("reviewer"), article.getLog());
+			}
+		}
+	}
+
+	static class MaskedAuthorStep extends AuthorStep {
+
+		@Override
+		public Collection<String> getPopulatedFields() {
+			return Arrays.asList("authorName", "mentors");
+		}
+	}
+
+	static class MaskedReviewerStep extends ReviewerStep {
+
+		@Override
+		public Collection<String> getPopulatedFields() {
+			return Collections.singletonList("reviewerName");
+		}
+	}
+
+	private static FieldMaskHydrationContext fields(String... fields) {
+		final Set<String> requested = fields != null ? new HashSet<>(Arrays.asList(fields)) : null;
+		return () -> requested;
+	}
+
+	@Test
+	public void testMaskedOutStepsDoNotLoad() {
+		final Key<TestPerson> alice = person(1, "Alice", null);
+		final Key<TestPerson> bob = person(2, "Bob", null);
+		ObjectifyService.ofy().clear();
+		final LoadCountingOfyProvider ofyProvider = new LoadCountingOfyProvider();
+		final Hydrator maskingHydrator = new Hydrator(ofyProvider);
+		final List<TestArticle> articles = articles(3, alice, bob);
+
+		maskingHydrator.hydrateCollection(articles, recipe(new MaskedAuthorStep(), new MaskedReviewerStep()), fields("id", "reviewerName"));
+
+		assertEquals(Collections.singletonList(bob), ofyProvider.getLoadedKeys());
+		for (TestArticle article : articles) {
+			assertNull(article.getAuthorName());
+			assertEquals("Bob", article.getReviewerName());
+			assertEquals(Collections.singletonList("reviewer"), article.getLog());
+		}
+	}
+
+	@Test
+	public void testAllStepsRunWithoutFieldMask() {
+		final Key<TestPerson> alice = person(1, "Alice", null);
+		final Key<TestPerson> bob = person(2, "Bob", null);
+		ObjectifyService.ofy().clear();
+		final LoadCountingOfyProvider ofyProvider = new LoadCountingOfyProvider();
+		final Hydrator maskingHydrator = new Hydrator(ofyProvider);
+		final TestArticle article = new TestArticle(1, alice, bob);
+
+		maskingHydrator.hydrateEntity(article, recipe(new MaskedAuthorStep(), new MaskedReviewerStep()), fields((String[]) null));
+
+		assertEquals(1, ofyProvider.getBatches().size());
+		assertEquals(new HashSet<>(Arrays.asList(alice, bob)), new HashSet<>(ofyProvider.getLoadedKeys()));
+		assertEquals(Arrays.asList("author", "reviewer"), article.getLog());
+	}
+
+	@Test
+	public void testStepsWithoutPopulatedFieldsAlwaysRun() {
+		final Key<TestPerson> alice = person(1, "Alice", null);
+		final Key<TestPerson> bob = person(2, "Bob", null);
+		final TestArticle article = new TestArticle(1, alice, bob);
+
+		hydrator.hydrateEntity(article, recipe(new MaskedAuthorStep(), new ReviewerStep()), fields("id"));
+
+		assertNull(article.getAuthorName());
+		assertEquals("Bob", article.getReviewerName());
+		assertEquals(Collections.singletonList("reviewer"), article.getLog());
+	}
+
+	@Test
+	public void testMaskedOutRecipeDoesNotLoad() {
+		final Key<TestPerson> alice = person(1, "Alice", null);
+		final Key<TestPerson> bob = person(2, "Bob", null);
+		final LoadCountingOfyProvider ofyProvider = new LoadCountingOfyProvider();
+		final Hydrator maskingHydrator = new Hydrator(ofyProvider);
+		final SimpleHydrationRecipe<TestArticle, HydrationContext> recipe = new SimpleHydrationRecipe<TestArticle, HydrationContext>(new AuthorStep(), new ReviewerStep()) {
+			@Override
+			public Collection<String> getPopulatedFields() {
+				return Arrays.asList("authorName", "mentors", "reviewerName");
+			}
+		};
+		final TestArticle article = new TestArticle(1, alice, bob);
+
+		maskingHydrator.hydrateEntity(article, recipe, fields("id", "title"));
+		assertTrue(ofyProvider.getBatches().isEmpty());
+		assertTrue(article.getLog().isEmpty());
+
+		maskingHydrator.hydrateEntity(article, recipe, fields("mentors"));
+		assertEquals(Arrays.asList("author", "reviewer"), article.getLog());
+	}
+}
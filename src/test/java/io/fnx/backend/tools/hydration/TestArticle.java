@@ -0,0 +1,73 @@
+package io.fnx.backend.tools.hydration;
+
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestArticle implements CanBeHydrated<TestArticle, HydrationContext> {
+
+	private final int number;
+	private final Key<TestPerson> author;
+	private final Key<TestPerson> reviewer;
+
+	private String authorName;
+	private String reviewerName;
+	private final List<String> mentors = new ArrayList<>();
+	private final List<String> log = new ArrayList<>();
+	private HydrationRecipe<TestArticle, HydrationContext> recipe;
+
+	public TestArticle(int number, Key<TestPerson> author, Key<TestPerson> reviewer) {
+		this.number = number;
+		this.author = author;
+		this.reviewer = reviewer;
+	}
+
+	public int getNumber() {
+		return number;
+	}
+
+	public Key<TestPerson> getAuthor() {
+		return author;
+	}
+
+	public Key<TestPerson> getReviewer() {
+		return reviewer;
+	}
+
+	public String getAuthorName() {
+		return authorName;
+	}
+
+	public void setAuthorName(String authorName) {
+		this.authorName = authorName;
+	}
+
+	public String getReviewerName() {
+		return reviewerName;
+	}
+
+	public void setReviewerName(String reviewerName) {
+		this.reviewerName = reviewerName;
+	}
+
+	public List<String> getMentors() {
+		return mentors;
+	}
+
+	/**
+	 * @return names of the executed steps, in order of their execution
+	 */
+	public List<String> getLog() {
+		return log;
+	}
+
+	@Override
+	public HydrationRecipe<TestArticle, HydrationContext> getRecipe() {
+		return recipe;
+	}
+
+	public void setRecipe(HydrationRecipe<TestArticle, HydrationContext> recipe) {
+		this.recipe = recipe;
+	}
+}
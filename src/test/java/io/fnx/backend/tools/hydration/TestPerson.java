@@ -0,0 +1,41 @@
+package io.fnx.backend.tools.hydration;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+@Entity
+public class TestPerson {
+
+	@Id
+	private Long id;
+
+	private String name;
+
+	private Key<TestPerson> mentor;
+
+	public TestPerson() {
+	}
+
+	public TestPerson(Long id, String name, Key<TestPerson> mentor) {
+		this.id = id;
+		this.name = name;
+		this.mentor = mentor;
+	}
+
+	public static Key<TestPerson> createKey(long id) {
+		return Key.create(TestPerson.class, id);
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Key<TestPerson> getMentor() {
+		return mentor;
+	}
+}
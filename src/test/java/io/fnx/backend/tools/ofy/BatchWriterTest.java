@@ -0,0 +1,172 @@
+package io.fnx.backend.tools.ofy;
+
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Result;
+import io.fnx.backend.domain.AuthTokenEntity;
+import io.fnx.backend.tools.hydration.TestPerson;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+public class BatchWriterTest extends LocalDatastoreTest {
+
+    private static List<AuthTokenEntity> tokens(int count) {
+        final List<AuthTokenEntity> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final AuthTokenEntity token = new AuthTokenEntity();
+            token.setId("token" + i);
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(BatchWriterTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private Objectify failingSaves(int failures, RuntimeException failure) {
+        return failingSaves(failures, failure, new AtomicInteger());
+    }
+
+    /**
+     * Objectify whose first given number of saves fail with given exception, when they are completed
+     *
+     * @param attempts counter of all save attempts
+     */
+    private Objectify failingSaves(int failures, RuntimeException failure, AtomicInteger attempts) {
+        final AtomicInteger remaining = new AtomicInteger(failures);
+        final Objectify ofy = ofy();
+        return proxy(Objectify.class, (p, method, args) -> {
+            if (!method.getName().equals("save")) return invoke(method, ofy, args);
+            final Object saver = ofy.save();
+            return proxy(method.getReturnType(), (sp, saveMethod, saveArgs) -> {
+                attempts.incrementAndGet();
+                if (remaining.getAndDecrement() <= 0) return invoke(saveMethod, saver, saveArgs);
+                return proxy(Result.class, (rp, resultMethod, resultArgs) -> {
+                    if (resultMethod.getName().equals("now")) throw failure;
+                    return null;
+                });
+            });
+        });
+    }
+
+    private BatchWriter writer(Objectify ofy) {
+        final BatchWriter writer = new BatchWriter(new OfyProvider()) {
+            @Override
+            protected Objectify ofy() {
+                return ofy;
+            }
+        };
+        writer.setBackoff(1, 2);
+        return writer;
+    }
+
+    @Test
+    public void testSaveAndDeleteInBatches() {
+        final BatchWriter writer = new BatchWriter(new OfyProvider());
+        final List<AuthTokenEntity> tokens = tokens(1200);
+
+        final BatchWriteStats saved = writer.save(tokens);
+        assertEquals(1200, saved.getItemCount());
+        assertEquals(3, saved.getBatchCount());
+        assertEquals(0, saved.getRetryCount());
+        ofy().clear();
+        assertNotNull(ofy().load().key(AuthTokenEntity.createKey("token1199")).now());
+
+        final List<Key<AuthTokenEntity>> keys = new ArrayList<>();
+        for (AuthTokenEntity token : tokens) {
+            keys.add(token.createKey());
+        }
+        assertEquals(48, writer.deleteInTransactions(keys).getBatchCount());
+        ofy().clear();
+        assertEquals(0, ofy().load().keys(keys).size());
+    }
+
+    @Test
+    public void testPlainSaveRetriesTimeout() {
+        final BatchWriter writer = writer(failingSaves(2, new DatastoreTimeoutException("contention")));
+
+        final BatchWriteStats stats = writer.save(tokens(10));
+        assertEquals(2, stats.getRetryCount());
+        ofy().clear();
+        assertNotNull(ofy().load().key(AuthTokenEntity.createKey("token9")).now());
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void testPlainSaveDoesNotRetryOtherFailures() {
+        writer(failingSaves(1, new ConcurrentModificationException())).save(tokens(10));
+    }
+
+    @Test
+    public void testPlainSaveUsesAllRetries() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final BatchWriter writer = writer(failingSaves(3, new DatastoreTimeoutException("contention"), attempts));
+        writer.setMaxRetries(3);
+
+        final BatchWriteStats stats = writer.save(tokens(10));
+        assertEquals(4, attempts.get());
+        assertEquals(3, stats.getRetryCount());
+    }
+
+    @Test
+    public void testPlainSaveGivesUpAfterMaxRetries() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final BatchWriter writer = writer(failingSaves(4, new DatastoreTimeoutException("contention"), attempts));
+        writer.setMaxRetries(3);
+        try {
+            writer.save(tokens(10));
+            fail("Save should give up after 3 retries");
+        } catch (DatastoreTimeoutException e) {
+            // the first attempt and 3 retries, as for transactional writes
+            assertEquals(4, attempts.get());
+        }
+    }
+
+    @Test
+    public void testTransactionsBatchEntityGroups() {
+        ObjectifyService.register(TestPerson.class);
+        final List<Key<TestPerson>> keys = new ArrayList<>();
+        final List<TestPerson> persons = new ArrayList<>();
+        // children of 30 parents, interleaved so that neighbouring keys belong to different groups
+        for (long child = 1; child <= 3; child++) {
+            for (long parent = 1; parent <= 30; parent++) {
+                keys.add(Key.create(TestPerson.createKey(parent), TestPerson.class, parent * 100 + child));
+            }
+        }
+        for (long id = 1; id <= 30; id++) {
+            persons.add(new TestPerson(id, "person" + id, null));
+        }
+
+        final BatchWriter writer = new BatchWriter(new OfyProvider());
+        assertEquals(2, writer.saveInTransactions(persons).getBatchCount());
+        final BatchWriteStats deleted = writer.deleteInTransactions(keys);
+        assertEquals(90, deleted.getItemCount());
+        assertEquals(2, deleted.getBatchCount());
+
+        writer.setTransactionSize(10);
+        assertEquals(3, writer.deleteInTransactions(keys).getBatchCount());
+    }
+}
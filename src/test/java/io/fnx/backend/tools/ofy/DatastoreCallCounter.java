@@ -0,0 +1,68 @@
+package io.fnx.backend.tools.ofy;
+
+import com.google.apphosting.api.ApiProxy;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the datastore RPCs (e.g. <code>Get</code>) made through the local services, for tests of code
+ * which uses <code>ObjectifyService.ofy()</code> directly, so {@link LoadCountingOfyProvider} cannot see it.
+ * <p>
+ * Install it after the local services were set up and uninstall it before they are torn down.
+ */
+public class DatastoreCallCounter {
+
+    private static final String DATASTORE_PACKAGE = "datastore_v3";
+
+    private final ConcurrentMap<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+
+    private ApiProxy.Delegate<?> original;
+
+    public void install() {
+        final ApiProxy.Delegate<?> delegate = ApiProxy.getDelegate();
+        if (delegate == null) throw new IllegalStateException("Local services are not set up");
+        original = delegate;
+
+        // the local services cast the delegate to their own interfaces, so the proxy has to implement all of them
+        final Set<Class<?>> interfaces = new LinkedHashSet<>();
+        for (Class<?> type = delegate.getClass(); type != null; type = type.getSuperclass()) {
+            Collections.addAll(interfaces, type.getInterfaces());
+        }
+        ApiProxy.setDelegate((ApiProxy.Delegate<?>) Proxy.newProxyInstance(delegate.getClass().getClassLoader(),
+                interfaces.toArray(new Class<?>[interfaces.size()]), (p, method, args) -> {
+                    if (method.getName().startsWith("make") && args != null && args.length > 2 && DATASTORE_PACKAGE.equals(args[1])) {
+                        calls.computeIfAbsent((String) args[2], name -> new AtomicInteger()).incrementAndGet();
+                    }
+                    try {
+                        return method.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }));
+    }
+
+    public void uninstall() {
+        if (original != null) ApiProxy.setDelegate(original);
+        original = null;
+    }
+
+    /**
+     * @param method name of the datastore method, e.g. <code>Get</code> or <code>Put</code>
+     * @return number of calls of the method since installed or reset
+     */
+    public int getCalls(String method) {
+        final AtomicInteger count = calls.get(method);
+        return count != null ? count.get() : 0;
+    }
+
+    public void reset() {
+        calls.clear();
+    }
+}
@@ -0,0 +1,172 @@
+package io.fnx.backend.tools.ofy;
+
+import com.google.apphosting.api.ApiProxy;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
+import io.fnx.backend.tools.hydration.TestPerson;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeyRangeScannerTest extends LocalDatastoreTest {
+
+    private static final int PERSONS = 100;
+
+    private final OfyProvider ofyProvider = new OfyProvider();
+
+    @Before
+    public void setUp() {
+        ObjectifyService.register(TestPerson.class);
+        final List<TestPerson> persons = new ArrayList<>(PERSONS);
+        for (long id = 1; id <= PERSONS; id++) {
+            persons.add(new TestPerson(id, "person" + id, null));
+        }
+        ofy().save().entities(persons).now();
+        ofy().clear();
+    }
+
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * Scanning threads need the App Engine environment of the test thread to reach the local datastore
+     */
+    private ThreadFactory testThreadFactory() {
+        final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+        return runnable -> {
+            final Thread thread = new Thread(() -> {
+                ApiProxy.setEnvironmentForCurrentThread(environment);
+                try {
+                    runnable.run();
+                } finally {
+                    ApiProxy.clearEnvironmentForCurrentThread();
+                }
+            });
+            threads.add(thread);
+            return thread;
+        };
+    }
+
+    private <T> KeyRangeScanner<T> configured(KeyRangeScanner<T> scanner) {
+        scanner.setThreadFactory(testThreadFactory());
+        scanner.setPageSize(7);
+        scanner.setQueueSize(5);
+        return scanner;
+    }
+
+    private static Set<Long> allIds() {
+        final Set<Long> ids = new HashSet<>();
+        for (long id = 1; id <= PERSONS; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    @Test
+    public void testSplitByIdRange() {
+        final List<KeyRange> ranges = KeyRangeScanner.splitByIdRange(ofy(), TestPerson.class, 4);
+        assertEquals(4, ranges.size());
+        assertNull(ranges.get(0).getStart());
+        assertNull(ranges.get(3).getEnd());
+        for (int i = 1; i < ranges.size(); i++) {
+            assertEquals(ranges.get(i - 1).getEnd(), ranges.get(i).getStart());
+        }
+        assertEquals(TestPerson.createKey(25), ranges.get(1).getStart());
+    }
+
+    @Test
+    public void testScanAllEntities() {
+        final KeyRangeScanner<TestPerson> scanner = configured(KeyRangeScanner.split(ofyProvider, TestPerson.class, 4));
+        assertTrue(scanner.getCheckpoint().getRanges().size() > 1);
+
+        final List<Long> ids = new ArrayList<>();
+        scanner.forEach(person -> ids.add(person.getId()));
+
+        assertEquals(PERSONS, ids.size());
+        assertEquals(allIds(), new HashSet<>(ids));
+        assertTrue(scanner.getCheckpoint().isFinished());
+        // entities were loaded by the scanning threads, not into the session of the calling one
+        assertFalse(ofy().isLoaded(TestPerson.createKey(1)));
+    }
+
+    @Test
+    public void testScanAllKeys() {
+        final KeyRangeScanner<TestPerson> scanner = configured(KeyRangeScanner.split(ofyProvider, TestPerson.class, 3));
+        final Set<Long> ids = new HashSet<>();
+        try (KeyRangeScanner<TestPerson>.ScanIterator<Key<TestPerson>> it = scanner.keysIterator()) {
+            while (it.hasNext()) {
+                ids.add(it.next().getId());
+            }
+        }
+        assertEquals(allIds(), ids);
+        assertTrue(scanner.getCheckpoint().isFinished());
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() {
+        final KeyRangeScanner<TestPerson> scanner = configured(KeyRangeScanner.split(ofyProvider, TestPerson.class, 4));
+        final Set<Long> ids = new HashSet<>();
+        try (KeyRangeScanner<TestPerson>.ScanIterator<TestPerson> it = scanner.iterator()) {
+            while (ids.size() < 50 && it.hasNext()) {
+                ids.add(it.next().getId());
+            }
+        }
+        final ScanCheckpoint checkpoint = scanner.getCheckpoint();
+        assertFalse(checkpoint.isFinished());
+
+        final KeyRangeScanner<TestPerson> resumed = configured(new KeyRangeScanner<>(ofyProvider, TestPerson.class,
+                ScanCheckpoint.fromWebSafeString(checkpoint.toWebSafeString())));
+        final List<Long> resumedIds = new ArrayList<>();
+        resumed.forEach(person -> resumedIds.add(person.getId()));
+
+        // only whole consumed pages are skipped, so nothing is lost and the rest may be delivered twice
+        assertTrue(resumedIds.size() < PERSONS);
+        assertEquals(resumedIds.size(), new HashSet<>(resumedIds).size());
+        ids.addAll(resumedIds);
+        assertEquals(allIds(), ids);
+        assertTrue(resumed.getCheckpoint().isFinished());
+    }
+
+    @Test(timeout = 10000)
+    public void testCloseStopsRangeThreads() throws InterruptedException {
+        final KeyRangeScanner<TestPerson> scanner = configured(KeyRangeScanner.split(ofyProvider, TestPerson.class, 4));
+        try (KeyRangeScanner<TestPerson>.ScanIterator<TestPerson> it = scanner.iterator()) {
+            assertTrue(it.hasNext());
+            it.next();
+        }
+        assertFalse(threads.isEmpty());
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testRangeThreadErrorReachesConsumer() {
+        final OfyProvider failing = new OfyProvider() {
+            @Override
+            public Objectify get() {
+                throw new OutOfMemoryError("test");
+            }
+        };
+        final List<KeyRange> ranges = new ArrayList<>();
+        ranges.add(new KeyRange(null, null));
+        final KeyRangeScanner<TestPerson> scanner = configured(new KeyRangeScanner<>(failing, TestPerson.class, new ScanCheckpoint(ranges)));
+        try {
+            scanner.forEach(person -> fail("No entity should be scanned"));
+            fail("Error of the range thread should be rethrown");
+        } catch (OutOfMemoryError e) {
+            assertEquals("test", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package io.fnx.backend.tools.ofy;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.cmd.Loader;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records the keys requested by batch loads (<code>ofy().load().keys(...)</code>) and single key loads
+ * (<code>ofy().load().key(...)</code>, recorded as batches of one key), so the tests can tell what the tested
+ * code went to the datastore for. Batches with no keys are not recorded.
+ */
+public class LoadCountingOfyProvider extends OfyProvider {
+
+    private final List<List<Key<?>>> batches = new ArrayList<>();
+
+    @Override
+    public Objectify get() {
+        final Objectify ofy = super.get();
+        return proxy(Objectify.class, (p, method, args) -> {
+            if (!method.getName().equals("load")) return invoke(method, ofy, args);
+            final Loader loader = ofy.load();
+            return proxy(Loader.class, (lp, loadMethod, loadArgs) -> {
+                if (loadMethod.getName().equals("keys") && loadArgs[0] instanceof Iterable) {
+                    record((Iterable<?>) loadArgs[0]);
+                } else if (loadMethod.getName().equals("key")) {
+                    record(Collections.singletonList(loadArgs[0]));
+                }
+                return invoke(loadMethod, loader, loadArgs);
+            });
+        });
+    }
+
+    private synchronized void record(Iterable<?> keys) {
+        final List<Key<?>> batch = new ArrayList<>();
+        for (Object key : keys) {
+            batch.add((Key<?>) key);
+        }
+        if (!batch.isEmpty()) batches.add(batch);
+    }
+
+    /**
+     * @return keys of the non empty loads, in order of the loads
+     */
+    public synchronized List<List<Key<?>>> getBatches() {
+        return new ArrayList<>(batches);
+    }
+
+    /**
+     * @return all keys requested by the loads, including the repeated ones
+     */
+    public synchronized List<Key<?>> getLoadedKeys() {
+        final List<Key<?>> keys = new ArrayList<>();
+        for (List<Key<?>> batch : batches) {
+            keys.addAll(batch);
+        }
+        return keys;
+    }
+
+    public synchronized void reset() {
+        batches.clear();
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(LoadCountingOfyProvider.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
@@ -0,0 +1,38 @@
+package io.fnx.backend.tools.ofy;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+import io.fnx.backend.tools.FnxGaeToolsOfyEntities;
+import org.junit.After;
+import org.junit.Before;
+
+/**
+ * Base of tests running against local datastore, with Objectify context opened for each test.
+ */
+public abstract class LocalDatastoreTest {
+
+    private final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+            new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+    private Closeable ofyContext;
+
+    @Before
+    public void setUpDatastore() {
+        helper.setUp();
+        FnxGaeToolsOfyEntities.registerEntities();
+        ofyContext = ObjectifyService.begin();
+    }
+
+    @After
+    public void tearDownDatastore() {
+        ofyContext.close();
+        helper.tearDown();
+    }
+
+    protected Objectify ofy() {
+        return ObjectifyService.ofy();
+    }
+}
@@ -0,0 +1,69 @@
+package io.fnx.backend.tools.ofy;
+
+import com.google.common.collect.Lists;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Ref;
+import io.fnx.backend.domain.AuthTokenEntity;
+import io.fnx.backend.tools.hydration.TestPerson;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static io.fnx.backend.tools.ofy.OfyUtils.NO_ID;
+import static io.fnx.backend.tools.ofy.OfyUtils.idsToKeys;
+import static io.fnx.backend.tools.ofy.OfyUtils.keysToIds;
+import static io.fnx.backend.tools.ofy.OfyUtils.kindOf;
+import static io.fnx.backend.tools.ofy.OfyUtils.refToKeyTransformer;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Creating datastore keys needs the App Engine environment, hence the local datastore
+ */
+public class OfyUtilsKeysTest extends LocalDatastoreTest {
+
+    @Test
+    public void testKindIsResolvedOncePerClass() {
+        assertEquals("TestPerson", kindOf(TestPerson.class));
+        assertSame(kindOf(TestPerson.class), kindOf(TestPerson.class));
+        assertEquals(Key.getKind(AuthTokenEntity.class), kindOf(AuthTokenEntity.class));
+    }
+
+    @Test
+    public void testIdsToKeysSkipsNulls() {
+        assertEquals(Arrays.asList(TestPerson.createKey(3), TestPerson.createKey(1)),
+                idsToKeys(TestPerson.class, Arrays.asList(3L, null, 1L)));
+        assertTrue(idsToKeys(TestPerson.class, (List<Long>) null).isEmpty());
+        assertTrue(idsToKeys(TestPerson.class, Collections.<Long>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testIdsToKeysArray() {
+        assertArrayEquals(new Key<?>[]{TestPerson.createKey(3), TestPerson.createKey(1)},
+                idsToKeys(TestPerson.class, new long[]{3, 1}));
+        assertEquals(0, idsToKeys(TestPerson.class, (long[]) null).length);
+    }
+
+    @Test
+    public void testKeysToIdsUsesNoIdForNullsAndNames() {
+        final List<Key<?>> keys = Arrays.asList(TestPerson.createKey(3), null, AuthTokenEntity.createKey("token"), TestPerson.createKey(1));
+        assertArrayEquals(new long[]{3, NO_ID, NO_ID, 1}, keysToIds(keys));
+        assertEquals(0, keysToIds(null).length);
+
+        // round trip of ids
+        final long[] ids = {5, 7, 9};
+        assertArrayEquals(ids, keysToIds(Arrays.asList(idsToKeys(TestPerson.class, ids))));
+    }
+
+    @Test
+    public void testRefToKeyTransformer() {
+        final List<Ref<TestPerson>> refs = Arrays.asList(Ref.create(TestPerson.createKey(2)), null, Ref.create(TestPerson.createKey(1)));
+        assertEquals(Arrays.asList(TestPerson.createKey(2), null, TestPerson.createKey(1)),
+                Lists.transform(refs, OfyUtils.<TestPerson>refToKeyTransformer()));
+        assertSame(refToKeyTransformer(), OfyUtils.<TestPerson>refToKeyTransformer());
+    }
+}
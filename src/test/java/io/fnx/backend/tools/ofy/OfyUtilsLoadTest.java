@@ -0,0 +1,89 @@
+package io.fnx.backend.tools.ofy;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Ref;
+import io.fnx.backend.tools.hydration.TestPerson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static io.fnx.backend.tools.ofy.OfyUtils.loadIds;
+import static io.fnx.backend.tools.ofy.OfyUtils.loadKeys;
+import static io.fnx.backend.tools.ofy.OfyUtils.loadRefs;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OfyUtilsLoadTest extends LocalDatastoreTest {
+
+    private final DatastoreCallCounter datastoreCalls = new DatastoreCallCounter();
+
+    @Before
+    public void setUp() {
+        ObjectifyService.register(TestPerson.class);
+        for (long id = 1; id <= 3; id++) {
+            ofy().save().entity(new TestPerson(id, "person" + id, null)).now();
+        }
+        ofy().clear();
+        datastoreCalls.install();
+    }
+
+    @After
+    public void tearDown() {
+        datastoreCalls.uninstall();
+    }
+
+    private static List<String> names(List<TestPerson> persons) {
+        final List<String> names = new ArrayList<>(persons.size());
+        for (TestPerson person : persons) {
+            names.add(person != null ? person.getName() : null);
+        }
+        return names;
+    }
+
+    @Test
+    public void testLoadKeysInSingleBatch() {
+        final List<TestPerson> persons = loadKeys(Arrays.asList(TestPerson.createKey(3), null, TestPerson.createKey(42),
+                TestPerson.createKey(1), TestPerson.createKey(3)));
+
+        assertEquals(Arrays.asList("person3", null, null, "person1", "person3"), names(persons));
+        assertEquals(1, datastoreCalls.getCalls("Get"));
+    }
+
+    @Test
+    public void testLoadRefsInSingleBatch() {
+        final List<Ref<TestPerson>> refs = Arrays.asList(Ref.create(TestPerson.createKey(2)), null,
+                Ref.create(TestPerson.createKey(42)), Ref.create(TestPerson.createKey(1)));
+
+        assertEquals(Arrays.asList("person2", null, null, "person1"), names(loadRefs(refs)));
+        assertEquals(1, datastoreCalls.getCalls("Get"));
+    }
+
+    @Test
+    public void testLoadIdsInSingleBatch() {
+        final List<TestPerson> persons = loadIds(TestPerson.class, Arrays.asList(42L, 1L, null, 2L));
+
+        assertEquals(Arrays.asList(null, "person1", null, "person2"), names(persons));
+        assertEquals(1, datastoreCalls.getCalls("Get"));
+    }
+
+    @Test
+    public void testNothingToLoad() {
+        assertTrue(loadKeys(null).isEmpty());
+        assertTrue(loadKeys(Collections.<Key<TestPerson>>emptyList()).isEmpty());
+        assertTrue(loadRefs(null).isEmpty());
+        assertTrue(loadRefs(Collections.<Ref<TestPerson>>emptyList()).isEmpty());
+        assertTrue(loadIds(TestPerson.class, null).isEmpty());
+        assertTrue(loadIds(TestPerson.class, Collections.<Long>emptyList()).isEmpty());
+
+        // only nulls keep their positions
+        assertEquals(Arrays.asList(null, null), loadKeys(Arrays.<Key<TestPerson>>asList(null, null)));
+        assertEquals(Collections.singletonList(null), loadIds(TestPerson.class, Collections.<Long>singletonList(null)));
+        assertEquals(0, datastoreCalls.getCalls("Get"));
+    }
+}
@@ -0,0 +1,94 @@
+package io.fnx.backend.tools.ofy;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static io.fnx.backend.tools.ofy.OfyUtils.indexPeriodDays;
+import static io.fnx.backend.tools.ofy.OfyUtils.indexPeriodMonths;
+import static io.fnx.backend.tools.ofy.OfyUtils.indexPeriodWeeks;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OfyUtilsTest {
+
+    private static DateTime date(int year, int month, int day) {
+        return new DateTime(year, month, day, 12, 0, DateTimeZone.UTC);
+    }
+
+    /**
+     * Straightforward day by day index, the optimized one must produce the same result
+     */
+    private static List<String> referenceDays(DateTime start, DateTime end) {
+        final DateTimeFormatter formatter = DateTimeFormat.forPattern("yyyyMMdd");
+        final List<String> result = new ArrayList<>();
+        DateTime current = start.withHourOfDay(0).withMinuteOfHour(0).withSecondOfMinute(0).withMillisOfSecond(0);
+        final DateTime truncatedEnd = end.withHourOfDay(0).withMinuteOfHour(0).withSecondOfMinute(0).withMillisOfSecond(0);
+        while (current.isBefore(truncatedEnd)) {
+            result.add(current.toString(formatter));
+            current = current.plusDays(1);
+        }
+        result.add(truncatedEnd.toString(formatter));
+        return result;
+    }
+
+    @Test
+    public void testDaysAcrossYearBoundary() {
+        assertEquals(Arrays.asList("20191230", "20191231", "20200101", "20200102"),
+                indexPeriodDays(date(2019, 12, 30), date(2020, 1, 2)));
+    }
+
+    @Test
+    public void testDaysOfLeapYear() {
+        assertEquals(Arrays.asList("20200228", "20200229", "20200301"), indexPeriodDays(date(2020, 2, 28), date(2020, 3, 1)));
+        assertEquals(Arrays.asList("20190228", "20190301"), indexPeriodDays(date(2019, 2, 28), date(2019, 3, 1)));
+        assertEquals(366, indexPeriodDays(date(2020, 1, 1), date(2020, 12, 31)).size());
+        assertEquals(referenceDays(date(2023, 6, 1), date(2025, 3, 1)), indexPeriodDays(date(2023, 6, 1), date(2025, 3, 1)));
+    }
+
+    @Test
+    public void testDaysOutsideOfCachedYears() {
+        assertEquals(Arrays.asList("19001231", "19010101"), indexPeriodDays(date(1900, 12, 31), date(1901, 1, 1)));
+        assertEquals(Arrays.asList("21000228", "21000301"), indexPeriodDays(date(2100, 2, 28), date(2100, 3, 1)));
+
+        // range crossing the edge of cached years in both directions
+        final int year = LocalDate.now(ZoneOffset.UTC).getYear();
+        assertEquals(referenceDays(date(year - 13, 11, 15), date(year - 8, 2, 10)),
+                indexPeriodDays(date(year - 13, 11, 15), date(year - 8, 2, 10)));
+        assertEquals(referenceDays(date(year + 8, 11, 15), date(year + 12, 2, 10)),
+                indexPeriodDays(date(year + 8, 11, 15), date(year + 12, 2, 10)));
+    }
+
+    @Test
+    public void testDaysOfSingleDayAndInvalidRange() {
+        assertEquals(Collections.singletonList("20200101"),
+                indexPeriodDays(new DateTime(2020, 1, 1, 0, 0, DateTimeZone.UTC), new DateTime(2020, 1, 1, 23, 59, DateTimeZone.UTC)));
+        assertTrue(indexPeriodDays(date(2020, 1, 2), date(2020, 1, 1)).isEmpty());
+        assertTrue(indexPeriodDays(null, date(2020, 1, 1)).isEmpty());
+    }
+
+    @Test
+    public void testWeeksAroundNewYear() {
+        // 2020 has 53 ISO weeks, 1 January 2021 (Friday) still belongs to its last week
+        assertEquals(Collections.singletonList("2020W53"), indexPeriodWeeks(date(2021, 1, 1), date(2021, 1, 3)));
+        assertEquals(Arrays.asList("2020W53", "2021W01", "2021W02"), indexPeriodWeeks(date(2020, 12, 28), date(2021, 1, 11)));
+        // 30 December 2019 (Monday) already belongs to the first week of 2020
+        assertEquals(Arrays.asList("2019W52", "2020W01"), indexPeriodWeeks(date(2019, 12, 29), date(2019, 12, 30)));
+        assertTrue(indexPeriodWeeks(date(2021, 1, 2), date(2021, 1, 1)).isEmpty());
+    }
+
+    @Test
+    public void testMonthsAcrossYearBoundary() {
+        assertEquals(Arrays.asList("201911", "201912", "202001", "202002"), indexPeriodMonths(date(2019, 11, 30), date(2020, 2, 1)));
+        assertEquals(Collections.singletonList("202002"), indexPeriodMonths(date(2020, 2, 1), date(2020, 2, 29)));
+    }
+}